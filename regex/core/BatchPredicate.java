@@ -0,0 +1,36 @@
+package regex.core;
+
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Literal test over a block of consecutive input elements, bound to one input, e.g. a
+ * primitive column: one call tests a literal against up to {@value #BLOCK} elements, so
+ * the loop over the block can be specialised and vectorised instead of going through
+ * an erased {@link BiPredicate} per element.
+ */
+@FunctionalInterface
+public interface BatchPredicate<T> {
+    int BLOCK = 64;
+
+    /**
+     * @param count number of elements, at most {@value #BLOCK}
+     * @return bitmap of the elements from, from + 1, ..., from + count - 1 accepted by
+     * the literal, the element from + i being bit i
+     */
+    long test(T literal, int from, int count);
+
+    /**
+     * element by element adapter of a list
+     */
+    static <T, R> BatchPredicate<T> of(List<R> input, BiPredicate<T, R> compare) {
+        return (literal, from, count) -> {
+            long result = 0;
+            for (int i = 0; i < count; ++i) {
+                if (compare.test(literal, input.get(from + i)))
+                    result |= 1L << i;
+            }
+            return result;
+        };
+    }
+}
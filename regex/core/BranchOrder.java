@@ -0,0 +1,281 @@
+package regex.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Order of the alternatives of the branches of a pattern for {@link Pattern#test}, adapted
+ * to the observed hit rates and costs, see {@link Pattern#enableAdaptiveBranchOrder()}.
+ * Whether a match exists does not depend on the order the alternatives are tried in, only
+ * the cost of finding it does, so the alternative with the lower expected cost per success,
+ * its average time over its hit rate, is tried first.
+ *
+ * One test in {@value #SAMPLE_INTERVAL} is sampled: the time spent in each alternative it
+ * enters and whether the match was found through it. One sample in {@value #EXPLORE_INTERVAL}
+ * runs the reverse order, so the alternatives tried second are measured as well. Every
+ * {@value #REORDER_INTERVAL} samples the order is computed again and published as a new copy
+ * of the compiled program; matchers running the previous copy finish on it. Older samples
+ * weigh half at every reorder, so the order follows changes of the input.
+ */
+public final class BranchOrder<T> {
+    static final int SAMPLE_INTERVAL = 16;
+    static final int EXPLORE_INTERVAL = 4;
+    static final int REORDER_INTERVAL = 64;
+    /** samples of both alternatives of a branch before it is reordered */
+    private static final int MIN_TRIES = 8;
+
+    private final Program<T> original;
+    /** branch of each program state, -1 for the other states */
+    private final int[] slots;
+    /** program state of each branch */
+    private final int[] states;
+    /** per branch and alternative in compile order, index branch * 2 + alternative */
+    private final AtomicLongArray tries;
+    private final AtomicLongArray hits;
+    private final AtomicLongArray nanos;
+    private final AtomicLong samples = new AtomicLong();
+    private volatile Order<T> current;
+
+    private static final class Order<T> {
+        final int version;
+        final boolean[] swapped;
+        final Program<T> program;
+        /** every branch swapped relative to program */
+        final Program<T> reverse;
+
+        Order(int version, boolean[] swapped, Program<T> program, Program<T> reverse) {
+            this.version = version;
+            this.swapped = swapped;
+            this.program = program;
+            this.reverse = reverse;
+        }
+    }
+
+    /**
+     * @param program program compiled from the automaton, whose states are numbered alike
+     */
+    BranchOrder(NFA<T> nfa, Program<T> program) {
+        this.original = program;
+        List<NFA<T>.State> automaton = nfa.getStates();
+        this.slots = new int[program.size()];
+        Arrays.fill(slots, -1);
+        int count = 0;
+        for (int i = 0; i < automaton.size(); ++i) {
+            if (automaton.get(i).node.type == RegexElement.BRANCH && program.outs[i].length == 2)
+                slots[i] = count++;
+        }
+        this.states = new int[count];
+        for (int i = 0; i < slots.length; ++i) {
+            if (slots[i] >= 0)
+                states[slots[i]] = i;
+        }
+        this.tries = new AtomicLongArray(count * 2);
+        this.hits = new AtomicLongArray(count * 2);
+        this.nanos = new AtomicLongArray(count * 2);
+        this.current = order(0, new boolean[count]);
+    }
+
+    private Order<T> order(int version, boolean[] swapped) {
+        int[][] outs = original.outs.clone();
+        int[][] reverse = original.outs.clone();
+        for (int slot = 0; slot < states.length; ++slot) {
+            int[] outList = original.outs[states[slot]];
+            int[] swappedList = {outList[1], outList[0]};
+            if (swapped[slot])
+                outs[states[slot]] = swappedList;
+            else
+                reverse[states[slot]] = swappedList;
+        }
+        return new Order<>(version, swapped, original.withOuts(outs), original.withOuts(reverse));
+    }
+
+    /**
+     * @return whether the next test is sampled
+     */
+    boolean sample() {
+        return states.length > 0 && ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) == 0;
+    }
+
+    Program<T> program(boolean sampled) {
+        Order<T> order = current;
+        if (sampled && ThreadLocalRandom.current().nextInt(EXPLORE_INTERVAL) == 0)
+            return order.reverse;
+        return order.program;
+    }
+
+    /**
+     * count a finished sample and reorder the branches every {@value #REORDER_INTERVAL} samples
+     */
+    void sampled() {
+        if (samples.incrementAndGet() % REORDER_INTERVAL == 0)
+            reorder();
+    }
+
+    private synchronized void reorder() {
+        Order<T> order = current;
+        boolean[] swapped = order.swapped.clone();
+        boolean changed = false;
+        for (int slot = 0; slot < states.length; ++slot) {
+            int first = slot * 2;
+            if (tries.get(first) < MIN_TRIES || tries.get(first + 1) < MIN_TRIES)
+                continue;
+            boolean swap = cost(first + 1) < cost(first);
+            changed |= swap != swapped[slot];
+            swapped[slot] = swap;
+        }
+        for (int i = 0; i < tries.length(); ++i) {
+            tries.addAndGet(i, -tries.get(i) / 2);
+            hits.addAndGet(i, -hits.get(i) / 2);
+            nanos.addAndGet(i, -nanos.get(i) / 2);
+        }
+        if (changed)
+            current = order(order.version + 1, swapped);
+    }
+
+    /**
+     * @return expected time to find a match through the alternative, its average time over its hit rate
+     */
+    private double cost(int index) {
+        long n = tries.get(index);
+        return (double) nanos.get(index) / n / ((hits.get(index) + 1.0) / (n + 2.0));
+    }
+
+    /**
+     * @return number of reorders published so far
+     */
+    public int getVersion() {
+        return current.version;
+    }
+
+    public long getSamples() {
+        return samples.get();
+    }
+
+    public int getBranchCount() {
+        return states.length;
+    }
+
+    /**
+     * @return whether the second alternative of the branch in compile order is tried first
+     */
+    public boolean isSwapped(int branch) {
+        return current.swapped[branch];
+    }
+
+    /**
+     * @param alternative 0 or 1, in compile order
+     * @return share of the sampled tries of the alternative which led to the match
+     */
+    public double getHitRate(int branch, int alternative) {
+        long n = tries.get(branch * 2 + alternative);
+        return n == 0 ? 0 : (double) hits.get(branch * 2 + alternative) / n;
+    }
+
+    /**
+     * @param alternative 0 or 1, in compile order
+     * @return average time of a sampled try of the alternative
+     */
+    public double getAverageNanos(int branch, int alternative) {
+        long n = tries.get(branch * 2 + alternative);
+        return n == 0 ? 0 : (double) nanos.get(branch * 2 + alternative) / n;
+    }
+
+    @Override
+    public String toString() {
+        Order<T> order = current;
+        StringBuilder builder = new StringBuilder("BranchOrder{version=").append(order.version)
+                .append(", samples=").append(samples.get()).append('}');
+        for (int slot = 0; slot < states.length; ++slot) {
+            builder.append("\nbranch ").append(slot).append(" at state ").append(states[slot])
+                    .append(order.swapped[slot] ? ": second first" : ": compile order");
+            for (int alternative = 0; alternative < 2; ++alternative) {
+                builder.append(String.format(", alternative %d tries %d hits %.2f %.0f ns", alternative,
+                        tries.get(slot * 2 + alternative), getHitRate(slot, alternative),
+                        getAverageNanos(slot, alternative)));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * records of one matcher during a sampled run of the compiled program: an alternative is
+     * entered when its branch is taken or when the backtrack stack drops to the choice of
+     * the second alternative, and it failed once the stack drops below the level it was
+     * entered at; the alternatives still entered when the match is found led to it
+     */
+    final class Sampler {
+        private int[] openKeys = new int[16];
+        private int[] openLevels = new int[16];
+        private long[] openStarts = new long[16];
+        private int openSize;
+        /** choices of second alternatives, by backtrack stack index */
+        private int[] pendingIndices = new int[16];
+        private int[] pendingKeys = new int[16];
+        private int pendingSize;
+
+        void start() {
+            openSize = pendingSize = 0;
+        }
+
+        /**
+         * the program took the first out of a state after pushing the second one at top - 1
+         */
+        void branch(int state, int first, int top) {
+            int slot = slots[state];
+            if (slot < 0)
+                return;
+            int alternative = original.outs[state][0] == first ? 0 : 1;
+            if (pendingSize == pendingIndices.length) {
+                pendingIndices = Arrays.copyOf(pendingIndices, pendingSize * 2);
+                pendingKeys = Arrays.copyOf(pendingKeys, pendingSize * 2);
+            }
+            pendingIndices[pendingSize] = top - 1;
+            pendingKeys[pendingSize++] = slot * 2 + 1 - alternative;
+            open(slot * 2 + alternative, top);
+        }
+
+        /**
+         * the program popped the choice at top
+         */
+        void backtrack(int top) {
+            close(top, false);
+            if (pendingSize > 0 && pendingIndices[pendingSize - 1] == top)
+                open(pendingKeys[--pendingSize], top);
+        }
+
+        void finish(boolean found) {
+            close(-1, found);
+            pendingSize = 0;
+        }
+
+        private void open(int key, int level) {
+            if (openSize == openKeys.length) {
+                openKeys = Arrays.copyOf(openKeys, openSize * 2);
+                openLevels = Arrays.copyOf(openLevels, openSize * 2);
+                openStarts = Arrays.copyOf(openStarts, openSize * 2);
+            }
+            openKeys[openSize] = key;
+            openLevels[openSize] = level;
+            openStarts[openSize++] = System.nanoTime();
+        }
+
+        /**
+         * record the alternatives entered above the level
+         */
+        private void close(int level, boolean found) {
+            if (openSize == 0 || openLevels[openSize - 1] <= level)
+                return;
+            long now = System.nanoTime();
+            while (openSize > 0 && openLevels[openSize - 1] > level) {
+                int key = openKeys[--openSize];
+                tries.incrementAndGet(key);
+                if (found)
+                    hits.incrementAndGet(key);
+                nanos.addAndGet(key, now - openStarts[openSize]);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package regex.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary form of user objects, e.g. pattern literals or buffered input elements.
+ */
+public interface Codec<X> {
+    void write(X value, DataOutput out) throws IOException;
+
+    X read(DataInput in) throws IOException;
+}
@@ -0,0 +1,59 @@
+package regex.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of {@link Pattern#compile}, only touched through {@link RegexEvents}.
+ */
+@Name("regex.Compile")
+@Label("Pattern Compile")
+@Category("Regex")
+@Description("Compilation of a pattern into its automata")
+@StackTrace(false)
+class CompileEvent extends Event {
+    private static final EventType TYPE = EventType.getEventType(CompileEvent.class);
+
+    @Label("Pattern Id")
+    @Description("Id of the pattern, the same as in its match events")
+    long patternId;
+
+    @Label("Regex")
+    String regex;
+
+    @Label("States")
+    int states;
+
+    @Label("Literals")
+    @Description("Number of literals and wildcards, -1 if the pattern could not be analysed")
+    int literals;
+
+    @Label("Backtracking Risk")
+    String risk;
+
+    static CompileEvent started() {
+        if (!TYPE.isEnabled())
+            return null;
+        CompileEvent event = new CompileEvent();
+        event.begin();
+        return event;
+    }
+
+    void end(Pattern<?> pattern, Object source) {
+        end();
+        if (!shouldCommit())
+            return;
+        PatternAnalysis analysis = pattern.getAnalysis();
+        this.patternId = pattern.getId();
+        this.regex = String.valueOf(source);
+        this.states = analysis.getStates();
+        this.literals = analysis.getPositions();
+        this.risk = analysis.getRisk().name();
+        commit();
+    }
+}
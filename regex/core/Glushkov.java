@@ -0,0 +1,202 @@
+package regex.core;
+
+import regex.core.PostExpression.Node;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+
+/**
+ * Position automaton of a post expression: every literal or wildcard is a position,
+ * a match is a path through the follow sets starting in first and ending in last.
+ * Sets of positions are bit sets stored in long words. Captures and match priorities
+ * are not represented, so the automaton only answers whether and where a match exists.
+ */
+class Glushkov<T> {
+    final int positionCount;
+    final int words;
+    /** literal of each position, null for a wildcard */
+    final T[] literals;
+    final long[] wildcards;
+    final long[] first;
+    final long[] last;
+    final long[][] follow;
+    final boolean nullable;
+
+    private Glushkov(T[] literals, long[] wildcards, long[] first, long[] last, long[][] follow, boolean nullable) {
+        this.positionCount = literals.length;
+        this.words = wildcards.length;
+        this.literals = literals;
+        this.wildcards = wildcards;
+        this.first = first;
+        this.last = last;
+        this.follow = follow;
+        this.nullable = nullable;
+    }
+
+    private static class Fragment {
+        final BitSet first;
+        final BitSet last;
+        boolean nullable;
+
+        Fragment(BitSet first, BitSet last, boolean nullable) {
+            this.first = first;
+            this.last = last;
+            this.nullable = nullable;
+        }
+    }
+
+    /**
+     * @return the position automaton, or null if the sequence is malformed or contains
+     * an element without a position automaton
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Glushkov<T> build(List<Node> sequence) {
+        List<T> literals = new ArrayList<>();
+        BitSet wildcards = new BitSet();
+        List<BitSet> follow = new ArrayList<>();
+        Stack<Fragment> stack = new Stack<>();
+        Fragment f1, f2;
+        for (Node node : sequence) {
+            switch (node.type) {
+                case LITERAL:
+                case WILDCARD:
+                    int position = literals.size();
+                    if (node.type == RegexElement.WILDCARD) {
+                        literals.add(null);
+                        wildcards.set(position);
+                    } else {
+                        literals.add(((PostExpression.LiteralNode<T>) node).content);
+                    }
+                    follow.add(new BitSet());
+                    BitSet single = new BitSet();
+                    single.set(position);
+                    stack.push(new Fragment(single, (BitSet) single.clone(), false));
+                    break;
+                case CONCAT:
+                    if (stack.size() < 2)
+                        return null;
+                    f1 = stack.pop();
+                    f2 = stack.pop();
+                    link(follow, f2.last, f1.first);
+                    if (f2.nullable)
+                        f2.first.or(f1.first);
+                    if (f1.nullable)
+                        f1.last.or(f2.last);
+                    stack.push(new Fragment(f2.first, f1.last, f2.nullable && f1.nullable));
+                    break;
+                case BRANCH:
+                    if (stack.size() < 2)
+                        return null;
+                    f1 = stack.pop();
+                    f2 = stack.pop();
+                    f2.first.or(f1.first);
+                    f2.last.or(f1.last);
+                    f2.nullable |= f1.nullable;
+                    stack.push(f2);
+                    break;
+                case KLEENE:
+                case NGKLEENE:
+                case REPEAT:
+                case NGREPEAT:
+                    if (stack.empty())
+                        return null;
+                    f1 = stack.peek();
+                    link(follow, f1.last, f1.first);
+                    if (node.type == RegexElement.KLEENE || node.type == RegexElement.NGKLEENE)
+                        f1.nullable = true;
+                    break;
+                case ALTERN:
+                    if (stack.empty())
+                        return null;
+                    stack.peek().nullable = true;
+                    break;
+                case CAPTURESTART:
+                case LPAREN:
+                case RPAREN:
+                case ESCAPE:
+                    break;
+                default:
+                    return null;
+            }
+        }
+        if (stack.size() != 1)
+            return null;
+        Fragment whole = stack.pop();
+        int words = Math.max(1, (literals.size() + 63) >>> 6);
+        long[][] followWords = new long[literals.size()][];
+        for (int i = 0; i < followWords.length; ++i)
+            followWords[i] = toWords(follow.get(i), words);
+        return new Glushkov<>((T[]) literals.toArray(), toWords(wildcards, words),
+                toWords(whole.first, words), toWords(whole.last, words), followWords, whole.nullable);
+    }
+
+    /**
+     * next = (follow(state) | first if starting) restricted to the positions accepting the element
+     * @return whether next is not empty
+     */
+    <R> boolean step(long[] state, boolean starting, R element, BiPredicate<T, R> compare, long[] next) {
+        if (starting)
+            System.arraycopy(first, 0, next, 0, words);
+        else
+            Arrays.fill(next, 0);
+        for (int w = 0; w < words; ++w) {
+            for (long bits = state[w]; bits != 0; bits &= bits - 1) {
+                long[] f = follow[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                for (int v = 0; v < words; ++v)
+                    next[v] |= f[v];
+            }
+        }
+        boolean alive = false;
+        for (int w = 0; w < words; ++w) {
+            for (long bits = next[w] & ~wildcards[w]; bits != 0; bits &= bits - 1) {
+                int p = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if (!compare.test(literals[p], element))
+                    next[w] &= ~(1L << p);
+            }
+            alive |= next[w] != 0;
+        }
+        return alive;
+    }
+
+    boolean accepts(long[] state) {
+        for (int w = 0; w < words; ++w) {
+            if ((state[w] & last[w]) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * same result as {@link Matcher#match()} on the pattern of this automaton
+     */
+    <R> boolean test(List<R> input, BiPredicate<T, R> compare, boolean requiredStart, boolean requiredEnd) {
+        if (input.isEmpty())
+            return false;
+        if (nullable && !requiredEnd)
+            return true;
+        long[] state = new long[words];
+        long[] next = new long[words];
+        boolean starting = true;
+        for (R element : input) {
+            boolean alive = step(state, starting, element, compare, next);
+            starting = !requiredStart;
+            if (!alive && requiredStart)
+                return false;
+            long[] swap = state;
+            state = next;
+            next = swap;
+            if (!requiredEnd && accepts(state))
+                return true;
+        }
+        return accepts(state);
+    }
+
+    private static void link(List<BitSet> follow, BitSet from, BitSet to) {
+        for (int p = from.nextSetBit(0); p >= 0; p = from.nextSetBit(p + 1))
+            follow.get(p).or(to);
+    }
+
+    private static long[] toWords(BitSet set, int words) {
+        return Arrays.copyOf(set.toLongArray(), words);
+    }
+}
@@ -0,0 +1,213 @@
+package regex.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Boolean matching over a list which only grows at its end, and optionally shrinks at its
+ * front. The active positions of the pattern are kept between updates together with the
+ * latest start of a run reaching each of them, so every element is read only once and
+ * runs starting in a dropped prefix can be discarded.
+ */
+public class IncrementalMatcher<T, R> {
+    private final Glushkov<T> automaton;
+    private final boolean requiredStart;
+    private final boolean requiredEnd;
+    /** identifies the pattern in checkpoints, see {@link StreamCheckpoint#fingerprint} */
+    private final long fingerprint;
+    private final List<R> input;
+    private final BiPredicate<T, R> compare;
+    /** absolute index of the first element of the list */
+    private int base;
+    /** absolute index of the next element to read */
+    private int consumed;
+    /** latest absolute start of a run in each position, -1 for inactive positions */
+    private int[] starts;
+    private int[] nextStarts;
+    private int matchStart;
+    private int matchEnd;
+
+    IncrementalMatcher(Pattern<T> pattern, List<R> input, BiPredicate<T, R> compare) {
+        this.automaton = pattern.getGlushkov();
+        if (automaton == null)
+            throw new IllegalStateException("pattern has no position automaton");
+        this.requiredStart = pattern.isRequiredStart();
+        this.requiredEnd = pattern.isRequiredEnd();
+        this.fingerprint = StreamCheckpoint.fingerprint(pattern);
+        this.input = input;
+        this.compare = compare;
+        this.starts = new int[automaton.positionCount];
+        this.nextStarts = new int[automaton.positionCount];
+        restart();
+        update();
+    }
+
+    private void restart() {
+        Arrays.fill(starts, -1);
+        consumed = base;
+        matchStart = matchEnd = -1;
+    }
+
+    /**
+     * read the elements appended to the list since the last update
+     */
+    public IncrementalMatcher<T, R> update() {
+        int size = base + input.size();
+        while (consumed < size) {
+            consume(input.get(consumed - base), consumed);
+            consumed++;
+        }
+        return this;
+    }
+
+    public IncrementalMatcher<T, R> append(R element) {
+        input.add(element);
+        return update();
+    }
+
+    public IncrementalMatcher<T, R> appendAll(Collection<? extends R> elements) {
+        input.addAll(elements);
+        return update();
+    }
+
+    /**
+     * remove the first count elements of the list and the runs starting in them; as the
+     * start anchor refers to the new first element, anchored patterns rescan the list
+     */
+    public IncrementalMatcher<T, R> dropFirst(int count) {
+        update();
+        count = Math.min(count, input.size());
+        input.subList(0, count).clear();
+        base += count;
+        if (requiredStart) {
+            restart();
+            return update();
+        }
+        for (int p = 0; p < starts.length; ++p) {
+            if (starts[p] < base)
+                starts[p] = -1;
+        }
+        if (matchStart < base)
+            matchStart = matchEnd = -1;
+        return this;
+    }
+
+    private void consume(R element, int index) {
+        int[] next = nextStarts;
+        Arrays.fill(next, -1);
+        for (int p = 0; p < starts.length; ++p) {
+            int start = starts[p];
+            if (start < 0)
+                continue;
+            long[] follow = automaton.follow[p];
+            for (int w = 0; w < follow.length; ++w) {
+                for (long bits = follow[w]; bits != 0; bits &= bits - 1) {
+                    int q = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    if (start > next[q])
+                        next[q] = start;
+                }
+            }
+        }
+        if (!requiredStart || index == base) {
+            if (automaton.nullable && !requiredEnd) {
+                matchStart = index;
+                matchEnd = index;
+            }
+            for (int w = 0; w < automaton.words; ++w) {
+                for (long bits = automaton.first[w]; bits != 0; bits &= bits - 1)
+                    next[(w << 6) + Long.numberOfTrailingZeros(bits)] = index;
+            }
+        }
+        for (int q = 0; q < next.length; ++q) {
+            if (next[q] >= 0 && !isWildcard(q) && !compare.test(automaton.literals[q], element))
+                next[q] = -1;
+        }
+        nextStarts = starts;
+        starts = next;
+        for (int w = 0; w < automaton.words; ++w) {
+            for (long bits = automaton.last[w]; bits != 0; bits &= bits - 1) {
+                int q = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if (starts[q] >= 0 && starts[q] >= matchStart) {
+                    matchStart = starts[q];
+                    matchEnd = index + 1;
+                }
+            }
+        }
+    }
+
+    private boolean isWildcard(int position) {
+        return (automaton.wildcards[position >>> 6] & (1L << position)) != 0;
+    }
+
+    /**
+     * @return the result {@link Matcher#match()} would give on the current list
+     */
+    public boolean matched() {
+        return !input.isEmpty() && (requiredEnd ? endMatchStart() >= 0 : matchStart >= base);
+    }
+
+    /**
+     * @return index in the current list of the latest starting match found, or -1
+     */
+    public int matchStart() {
+        int start = requiredEnd ? endMatchStart() : matchStart;
+        return input.isEmpty() || start < base ? -1 : start - base;
+    }
+
+    /**
+     * @return end index (exclusive) in the current list of the latest starting match found, or -1
+     */
+    public int matchEnd() {
+        if (matchStart() < 0)
+            return -1;
+        return requiredEnd ? input.size() : matchEnd - base;
+    }
+
+    /**
+     * @return latest absolute start of a run accepted at the end of the list, or -1
+     */
+    private int endMatchStart() {
+        int result = -1;
+        for (int w = 0; w < automaton.words; ++w) {
+            for (long bits = automaton.last[w]; bits != 0; bits &= bits - 1)
+                result = Math.max(result, starts[(w << 6) + Long.numberOfTrailingZeros(bits)]);
+        }
+        return result;
+    }
+
+    /**
+     * write the live state and the current list, see {@link StreamCheckpoint}
+     */
+    public void checkpoint(DataOutput out, Codec<R> codec) throws IOException {
+        update();
+        StreamCheckpoint.writeHeader(out, StreamCheckpoint.INCREMENTAL, automaton, requiredStart, requiredEnd, fingerprint);
+        out.writeInt(base);
+        out.writeInt(matchStart);
+        out.writeInt(matchEnd);
+        StreamCheckpoint.writeStarts(out, starts);
+        StreamCheckpoint.writeElements(out, input, codec);
+    }
+
+    /**
+     * replace the state and the list of this matcher by a checkpoint of a matcher of the same pattern
+     */
+    public IncrementalMatcher<T, R> restore(DataInput in, Codec<R> codec) throws IOException {
+        StreamCheckpoint.readHeader(in, StreamCheckpoint.INCREMENTAL, automaton, requiredStart, requiredEnd, fingerprint);
+        base = in.readInt();
+        matchStart = in.readInt();
+        matchEnd = in.readInt();
+        StreamCheckpoint.readStarts(in, starts);
+        StreamCheckpoint.readElements(in, input, codec);
+        consumed = base + input.size();
+        return this;
+    }
+
+    public List<R> getInput() {
+        return input;
+    }
+}
@@ -0,0 +1,310 @@
+package regex.core;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Access of the backtracking engines to the input. Random access lists and arrays are read
+ * in place. Other lists and iterators are read once, in order, into a buffer: a search only
+ * moves its start offset forward and never backtracks before it, so the matcher releases the
+ * elements before the start offset, see {@link #release(int)}, and the buffer only holds the
+ * elements from there to the furthest element read.
+ */
+abstract class InputCursor<R> {
+    /** whether the elements are buffered and have to be released, false for random access */
+    final boolean sequential;
+
+    InputCursor(boolean sequential) {
+        this.sequential = sequential;
+    }
+
+    /**
+     * @return whether the element at the index exists, reading the source up to it
+     */
+    abstract boolean has(int index);
+
+    /**
+     * @return the element at an index for which {@link #has(int)} returned true
+     */
+    abstract R get(int index);
+
+    /**
+     * @return number of elements, or -1 while a source of unknown size is not read to its end
+     */
+    abstract int size();
+
+    /**
+     * @return number of elements known to exist, the size or the number of elements read so far
+     */
+    abstract int length();
+
+    /**
+     * the matcher will not read the elements before the index anymore, only called on sequential cursors
+     */
+    void release(int index) {
+    }
+
+    /**
+     * @return whether released elements can be read again; otherwise groups have to be read
+     * before the matcher moves on
+     */
+    boolean isRereadable() {
+        return true;
+    }
+
+    /**
+     * @return the input as a list, the view of an iterator reads the buffered elements only
+     */
+    abstract List<R> asList();
+
+    /**
+     * @return the elements from..to, indexed from 0, readable after the cursor moves on;
+     * views of the input unless it is an iterator, whose elements are copied
+     * @throws IllegalStateException if elements of an iterator in the range were released
+     */
+    List<R> snapshot(int from, int to) {
+        return asList().subList(from, to);
+    }
+
+    static <R> InputCursor<R> of(List<R> list) {
+        if (list instanceof RandomAccess)
+            return new ListCursor<>(list);
+        return new SequentialCursor<>(list, list.iterator(), list.size());
+    }
+
+    static <R> InputCursor<R> of(R[] array) {
+        return new ArrayCursor<>(array);
+    }
+
+    static <R> InputCursor<R> of(Iterator<R> iterator) {
+        return new SequentialCursor<>(null, iterator, -1);
+    }
+
+    private static final class ListCursor<R> extends InputCursor<R> {
+        private final List<R> list;
+        /** the input is not modified while it is bound to a matcher */
+        private final int size;
+
+        ListCursor(List<R> list) {
+            super(false);
+            this.list = list;
+            this.size = list.size();
+        }
+
+        @Override
+        boolean has(int index) {
+            return index < size;
+        }
+
+        @Override
+        R get(int index) {
+            return list.get(index);
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int length() {
+            return size;
+        }
+
+        @Override
+        List<R> asList() {
+            return list;
+        }
+    }
+
+    private static final class ArrayCursor<R> extends InputCursor<R> {
+        private final R[] array;
+
+        ArrayCursor(R[] array) {
+            super(false);
+            this.array = array;
+        }
+
+        @Override
+        boolean has(int index) {
+            return index < array.length;
+        }
+
+        @Override
+        R get(int index) {
+            return array[index];
+        }
+
+        @Override
+        int size() {
+            return array.length;
+        }
+
+        @Override
+        int length() {
+            return array.length;
+        }
+
+        @Override
+        List<R> asList() {
+            return Arrays.asList(array);
+        }
+    }
+
+    /**
+     * ring buffer of the elements base..end of a sequential source; a list source is read
+     * again through a new iterator when a released element is asked for
+     */
+    private static final class SequentialCursor<R> extends InputCursor<R> {
+        /** null for an iterator */
+        private final List<R> list;
+        private Iterator<R> iterator;
+        /** index of the element the iterator returns next */
+        private int next;
+        private Object[] buffer = new Object[16];
+        private int base;
+        private int end;
+        private int size;
+        private final List<R> view = new AbstractList<R>() {
+            @Override
+            public R get(int index) {
+                if (index < 0 || !has(index))
+                    throw new IndexOutOfBoundsException("index " + index);
+                return SequentialCursor.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return length();
+            }
+        };
+
+        SequentialCursor(List<R> list, Iterator<R> iterator, int size) {
+            super(true);
+            this.list = list;
+            this.iterator = iterator;
+            this.size = size;
+        }
+
+        @Override
+        boolean has(int index) {
+            if (index < end)
+                return true;
+            if (size >= 0)
+                return index < size;
+            return fill(index);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        R get(int index) {
+            if (index < base) {
+                if (list == null)
+                    throw new IllegalStateException("element " + index + " of the input was released");
+                clear(index);
+            }
+            if (index >= end && !fill(index))
+                throw new IndexOutOfBoundsException("index " + index);
+            return (R) buffer[index & (buffer.length - 1)];
+        }
+
+        /**
+         * read the source up to the index
+         * @return whether the element at the index exists
+         */
+        private boolean fill(int index) {
+            if (next != end) {
+                /** the buffer was restarted before or after the iterator */
+                if (list != null) {
+                    if (end >= size)
+                        return false;
+                    iterator = list.listIterator(end);
+                    next = end;
+                } else {
+                    for (; next < end; ++next) {
+                        if (!iterator.hasNext()) {
+                            size = next;
+                            return false;
+                        }
+                        iterator.next();
+                    }
+                }
+            }
+            while (end <= index) {
+                if (!iterator.hasNext()) {
+                    size = end;
+                    return false;
+                }
+                if (end - base == buffer.length)
+                    grow();
+                buffer[end & (buffer.length - 1)] = iterator.next();
+                end++;
+                next++;
+            }
+            return true;
+        }
+
+        private void grow() {
+            Object[] larger = new Object[buffer.length * 2];
+            for (int i = base; i < end; ++i)
+                larger[i & (larger.length - 1)] = buffer[i & (buffer.length - 1)];
+            buffer = larger;
+        }
+
+        /**
+         * empty the buffer and restart it at the index
+         */
+        private void clear(int index) {
+            for (int i = base; i < end; ++i)
+                buffer[i & (buffer.length - 1)] = null;
+            base = end = index;
+        }
+
+        @Override
+        void release(int index) {
+            if (index <= base)
+                return;
+            if (index >= end) {
+                clear(index);
+                return;
+            }
+            for (; base < index; ++base)
+                buffer[base & (buffer.length - 1)] = null;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int length() {
+            return size >= 0 ? size : end;
+        }
+
+        @Override
+        boolean isRereadable() {
+            return list != null;
+        }
+
+        @Override
+        List<R> asList() {
+            return list != null ? list : view;
+        }
+
+        @Override
+        List<R> snapshot(int from, int to) {
+            if (list != null)
+                return list.subList(from, to);
+            Object[] elements = new Object[to - from];
+            for (int i = from; i < to; ++i)
+                elements[i - from] = get(i);
+            @SuppressWarnings("unchecked")
+            List<R> copy = (List<R>) Arrays.asList(elements);
+            return copy;
+        }
+    }
+}
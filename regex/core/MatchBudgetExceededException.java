@@ -0,0 +1,32 @@
+package regex.core;
+
+/**
+ * Thrown by {@link Matcher#match()} when the {@link MatchLimits} of the matcher are exceeded.
+ */
+public class MatchBudgetExceededException extends RuntimeException {
+    private static final long serialVersionUID = -3377093470624383529L;
+
+    public enum Reason {
+        STEPS, PREDICATE_CALLS, DEADLINE
+    }
+
+    private final Reason reason;
+    private final transient MatchStatistics statistics;
+
+    MatchBudgetExceededException(Reason reason, MatchStatistics statistics) {
+        super("match budget exceeded (" + reason + "): " + statistics);
+        this.reason = reason;
+        this.statistics = statistics;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the statistics collected until the budget was exceeded
+     */
+    public MatchStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,70 @@
+package regex.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of a search of a {@link Matcher}, only touched through {@link RegexEvents}.
+ * Only searches slower than the threshold are recorded, 1 ms unless the recording settings
+ * give another one. Steps and predicate calls are counted while the event is recorded,
+ * as for a {@link MatchListener}.
+ */
+@Name("regex.Match")
+@Label("Pattern Match")
+@Category("Regex")
+@Description("Search of a pattern in an input")
+@Threshold("1 ms")
+class MatchEvent extends Event {
+    private static final EventType TYPE = EventType.getEventType(MatchEvent.class);
+
+    @Label("Pattern Id")
+    long patternId;
+
+    @Label("Input Length")
+    int inputLength;
+
+    @Label("Start Offset")
+    int start;
+
+    @Label("Steps")
+    @Description("States visited by the backtracking engines")
+    long steps;
+
+    @Label("Predicate Calls")
+    long predicateCalls;
+
+    @Label("Matched")
+    boolean matched;
+
+    @Label("Aborted")
+    @Description("Budget of the MatchLimits the search exceeded, null if it ran to its end")
+    String abortReason;
+
+    static MatchEvent started() {
+        if (!TYPE.isEnabled())
+            return null;
+        MatchEvent event = new MatchEvent();
+        event.begin();
+        return event;
+    }
+
+    void end(Pattern<?> pattern, int inputLength, int start, long steps, long predicateCalls, boolean matched,
+             MatchBudgetExceededException.Reason aborted) {
+        end();
+        if (!shouldCommit())
+            return;
+        this.patternId = pattern.getId();
+        this.inputLength = inputLength;
+        this.start = start;
+        this.steps = steps;
+        this.predicateCalls = predicateCalls;
+        this.matched = matched;
+        this.abortReason = aborted == null ? null : aborted.name();
+        commit();
+    }
+}
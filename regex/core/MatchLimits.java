@@ -0,0 +1,68 @@
+package regex.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Budget of one call of {@link Matcher#match()}. A matcher exceeding any of the limits
+ * stops with a {@link MatchBudgetExceededException}. The deadline is only read from the
+ * clock every {@code checkInterval} visited states.
+ */
+public class MatchLimits {
+    public static final MatchLimits NONE = new MatchLimits(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, 1024);
+
+    private final long maxSteps;
+    private final long maxPredicateCalls;
+    private final long timeoutNanos;
+    private final int checkInterval;
+
+    private MatchLimits(long maxSteps, long maxPredicateCalls, long timeoutNanos, int checkInterval) {
+        if (maxSteps <= 0 || maxPredicateCalls <= 0 || timeoutNanos <= 0 || checkInterval <= 0)
+            throw new IllegalArgumentException("match limits should be positive");
+        this.maxSteps = maxSteps;
+        this.maxPredicateCalls = maxPredicateCalls;
+        this.timeoutNanos = timeoutNanos;
+        this.checkInterval = checkInterval;
+    }
+
+    public MatchLimits withMaxSteps(long maxSteps) {
+        return new MatchLimits(maxSteps, maxPredicateCalls, timeoutNanos, checkInterval);
+    }
+
+    public MatchLimits withMaxPredicateCalls(long maxPredicateCalls) {
+        return new MatchLimits(maxSteps, maxPredicateCalls, timeoutNanos, checkInterval);
+    }
+
+    public MatchLimits withTimeout(long timeout, TimeUnit unit) {
+        return new MatchLimits(maxSteps, maxPredicateCalls, unit.toNanos(timeout), checkInterval);
+    }
+
+    public MatchLimits withCheckInterval(int checkInterval) {
+        return new MatchLimits(maxSteps, maxPredicateCalls, timeoutNanos, checkInterval);
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public long getMaxPredicateCalls() {
+        return maxPredicateCalls;
+    }
+
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public int getCheckInterval() {
+        return checkInterval;
+    }
+
+    boolean hasDeadline() {
+        return timeoutNanos != Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchLimits{steps=" + maxSteps + ", predicates=" + maxPredicateCalls
+                + ", timeoutNanos=" + timeoutNanos + ", checkInterval=" + checkInterval + "}";
+    }
+}
@@ -0,0 +1,14 @@
+package regex.core;
+
+/**
+ * Receives the execution statistics of every match attempt made by a {@link Matcher},
+ * including the attempts aborted by {@link MatchLimits}, see {@link MatchStatistics#isAborted()}.
+ * Counting is only switched on when a listener other than {@link #NONE} is attached or
+ * limits are given, so matchers without either pay nothing for it.
+ */
+public interface MatchListener {
+    MatchListener NONE = statistics -> {
+    };
+
+    void matchFinished(MatchStatistics statistics);
+}
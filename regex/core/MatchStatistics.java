@@ -0,0 +1,90 @@
+package regex.core;
+
+/**
+ * Counters collected during one call of {@link Matcher#match()}, also when it was aborted
+ * by its {@link MatchLimits}.
+ */
+public class MatchStatistics {
+    private final int inputLength;
+    private final boolean matched;
+    private final long predicateCalls;
+    private final long statesVisited;
+    private final long backtracks;
+    private final int startOffsets;
+    private final int peakDepth;
+    private final long nanos;
+    /** limit which aborted the search, null if it ran to its end */
+    private final MatchBudgetExceededException.Reason abortReason;
+
+    MatchStatistics(int inputLength, boolean matched, long predicateCalls, long statesVisited,
+                    long backtracks, int startOffsets, int peakDepth, long nanos,
+                    MatchBudgetExceededException.Reason abortReason) {
+        this.inputLength = inputLength;
+        this.matched = matched;
+        this.predicateCalls = predicateCalls;
+        this.statesVisited = statesVisited;
+        this.backtracks = backtracks;
+        this.startOffsets = startOffsets;
+        this.peakDepth = peakDepth;
+        this.nanos = nanos;
+        this.abortReason = abortReason;
+    }
+
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    /**
+     * @return whether a match was found, false for aborted searches as well, see {@link #isAborted()}
+     */
+    public boolean isMatched() {
+        return matched;
+    }
+
+    /**
+     * @return whether the search was aborted by its limits before it could decide on a match
+     */
+    public boolean isAborted() {
+        return abortReason != null;
+    }
+
+    /**
+     * @return the limit which aborted the search, or null if it was not aborted
+     */
+    public MatchBudgetExceededException.Reason getAbortReason() {
+        return abortReason;
+    }
+
+    public long getPredicateCalls() {
+        return predicateCalls;
+    }
+
+    public long getStatesVisited() {
+        return statesVisited;
+    }
+
+    public long getBacktracks() {
+        return backtracks;
+    }
+
+    public int getStartOffsets() {
+        return startOffsets;
+    }
+
+    public int getPeakDepth() {
+        return peakDepth;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchStatistics{input=" + inputLength + ", matched=" + matched
+                + ", predicates=" + predicateCalls + ", states=" + statesVisited
+                + ", backtracks=" + backtracks + ", offsets=" + startOffsets
+                + ", peakDepth=" + peakDepth + ", nanos=" + nanos
+                + (abortReason != null ? ", aborted=" + abortReason : "") + "}";
+    }
+}
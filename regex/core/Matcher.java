@@ -4,48 +4,275 @@ import regex.util.Pair;
 
 import java.util.*;
 import java.util.function.BiPredicate;
+import java.util.function.Function;
 
 /**
  * Created by tshun_000 on 3/24/2015.
  */
 public class Matcher<T, R> {
+    /** largest memo of visited pairs, larger inputs are matched without it */
+    private static final long MAX_MEMO_BITS = 1L << 26;
+
     private final boolean requiredStart;
     private final boolean requiredEnd;
     private final int captureCound;
-    private Map<Integer, Stack<Pair<Integer, Integer>>> groupMap;
+    /** per group stacks of captured bounds, an end of -1 marks an unclosed capture */
+    private int[][] groupStarts;
+    private int[][] groupEnds;
+    private int[] groupSizes;
     private BiPredicate<T, R> compare;
+    private Function<R, ?> elementKey;
     private List<R> input;
+    private InputCursor<R> cursor;
     private NFA<T> nfa;
+    private Pattern<T> pattern;
+    private Program<T> program;
+    /** backtrack stack of the compiled tier, pairs of state and input position */
+    private int[] choiceStates;
+    /** entry of the backtrack stack below the choices made in an atomic body */
+    private static final int BARRIER = -1;
+    /** entries below it restore the loop entry RESTORE - entry to the position of the entry */
+    private static final int RESTORE = -2;
+    private int[] choicePositions;
+    /** per loop which can match the empty sequence, position the current path last entered its body at */
+    private int[] loopEntries;
+    /** (state, position) pairs already visited by the compiled tier of a memoized pattern, bit pos * size + state */
+    private long[] visited;
+    private int visitedMax;
+    /** whether only the bounds of the whole match are read, which allows the memo for patterns with captures */
+    private boolean spansOnly;
+    /** order of the branches for boolean matching, null to run them in compile order */
+    private BranchOrder<T> branchOrder;
+    private BranchOrder<T>.Sampler sampler;
+    /** whether the current search is sampled for the branch order */
+    private boolean profiling;
     private boolean matched;
     private int from;
     private int to;
+    /** end of the last atomic body searched by the interpreter */
+    private int atomicEnd;
+    /** start offset of the next call of {@link #find()} */
+    private int nextFind;
+    private MatchListener listener;
+    private boolean instrumented;
+    private boolean counting;
+    private MatchLimits limits;
+    private long begin;
+    private long deadline;
+    private int untilDeadlineCheck;
+    private MatchStatistics statistics;
+    private long predicateCalls;
+    private long statesVisited;
+    private long backtracks;
+    private int startOffsets;
+    private int depth;
+    private int peakDepth;
 
     Matcher(Pattern<T> pattern, List<R> input, BiPredicate<T, R> compare) {
+        this(pattern, input, compare, MatchLimits.NONE, null);
+    }
+
+    Matcher(Pattern<T> pattern, List<R> input, BiPredicate<T, R> compare, MatchLimits limits,
+            Function<R, ?> elementKey) {
+        this(pattern, InputCursor.of(input), compare, limits, elementKey);
+    }
+
+    Matcher(Pattern<T> pattern, InputCursor<R> input, BiPredicate<T, R> compare, MatchLimits limits,
+            Function<R, ?> elementKey) {
         this.requiredStart = pattern.isRequiredStart();
         this.requiredEnd = pattern.isRequiredEnd();
         this.captureCound = pattern.getNfa().getGroupCount();
-        this.groupMap = new HashMap<>();
-        this.compare = compare;
-        this.input = input;
+        this.groupStarts = new int[captureCound + 1][4];
+        this.groupEnds = new int[captureCound + 1][4];
+        this.groupSizes = new int[captureCound + 1];
         this.nfa = pattern.getNfa();
+        this.loopEntries = new int[nfa.getLoopCount()];
+        this.pattern = pattern;
+        this.elementKey = elementKey;
+        this.compare = compare;
+        reset(input);
+        this.limits = limits == null ? MatchLimits.NONE : limits;
+        setListener(pattern.getListener());
+    }
+
+    /**
+     * rebind this matcher to a new input, keeping its internal arrays
+     */
+    public Matcher<T, R> reset(List<R> input) {
+        return reset(InputCursor.of(input));
+    }
+
+    Matcher<T, R> reset(InputCursor<R> cursor) {
+        this.cursor = cursor;
+        this.input = cursor.asList();
         this.from = -1;
         this.to = -1;
         this.matched = false;
-        for (int i = 0; i <= this.captureCound; ++i)
-            groupMap.put(i, new Stack<>());
+        this.nextFind = 0;
+        this.statistics = null;
+        Arrays.fill(groupSizes, 0);
+        return this;
+    }
+
+    public Matcher<T, R> reset(List<R> input, BiPredicate<T, R> compare) {
+        this.compare = compare;
+        return reset(input);
+    }
+
+    Matcher<T, R> spansOnly() {
+        this.spansOnly = true;
+        return this;
+    }
+
+    /**
+     * run the compiled program in the adaptive branch order, which only keeps whether a match exists
+     */
+    Matcher<T, R> adaptive(BranchOrder<T> order) {
+        this.branchOrder = order;
+        return this;
+    }
+
+    public void setListener(MatchListener listener) {
+        this.listener = listener == null ? MatchListener.NONE : listener;
+        this.instrumented = this.listener != MatchListener.NONE;
+        this.counting = instrumented || limits != MatchLimits.NONE;
+    }
+
+    /**
+     * @return statistics of the last match, or null if none were collected: they are collected
+     * while a listener is attached or limits were given to {@link Pattern#matcher}
+     */
+    public MatchStatistics getStatistics() {
+        return statistics;
     }
 
+    /**
+     * search the first match of the input
+     * @throws MatchBudgetExceededException if the limits given to {@link Pattern#matcher} are exceeded
+     */
     public boolean match() {
-        int len = input.size();
-        for (int i = 0; i < len; ++i) {
+        return find(0);
+    }
+
+    /**
+     * search the next match, starting at the end of the previous one,
+     * or one element later if the previous match was empty
+     */
+    public boolean find() {
+        if (nextFind > 0 && !cursor.has(nextFind - 1))
+            return false;
+        return find(nextFind);
+    }
+
+    /**
+     * search the first match starting at or after the given offset
+     */
+    public boolean find(int start) {
+        matched = false;
+        Arrays.fill(groupSizes, 0);
+        boolean found = counted(start);
+        nextFind = !found ? cursor.length() + 1 : (to == from ? to + 1 : to);
+        return found;
+    }
+
+    private boolean counted(int start) {
+        Object event = RegexEvents.beginMatch();
+        if (!counting && event == null)
+            return matchFrom(start);
+        boolean reported = counting;
+        counting = true;
+        predicateCalls = statesVisited = backtracks = 0;
+        startOffsets = depth = peakDepth = 0;
+        begin = System.nanoTime();
+        deadline = begin + limits.getTimeoutNanos();
+        untilDeadlineCheck = limits.getCheckInterval();
+        boolean found = false;
+        MatchBudgetExceededException.Reason aborted = null;
+        try {
+            found = matchFrom(start);
+        } catch (MatchBudgetExceededException e) {
+            aborted = e.getReason();
+            throw e;
+        } finally {
+            counting = reported;
+            RegexEvents.endMatch(event, pattern, cursor.length(), start, statesVisited, predicateCalls, found, aborted);
+        }
+        if (reported)
+            finish(found, null);
+        return found;
+    }
+
+    private MatchStatistics finish(boolean found, MatchBudgetExceededException.Reason aborted) {
+        statistics = new MatchStatistics(cursor.length(), found, predicateCalls, statesVisited,
+                backtracks, startOffsets, peakDepth, System.nanoTime() - begin, aborted);
+        if (instrumented)
+            listener.matchFinished(statistics);
+        return statistics;
+    }
+
+    private void exceeded(MatchBudgetExceededException.Reason reason) {
+        throw new MatchBudgetExceededException(reason, finish(false, reason));
+    }
+
+    private boolean matchFrom(int start) {
+        if (branchOrder != null)
+            return matchAdaptive(start);
+        if (program == null)
+            program = pattern.getProgram(spansOnly);
+        return matchProgram(start);
+    }
+
+    private boolean matchAdaptive(int start) {
+        profiling = branchOrder.sample();
+        program = branchOrder.program(profiling);
+        if (profiling && sampler == null)
+            sampler = branchOrder.new Sampler();
+        try {
+            return matchProgram(start);
+        } finally {
+            if (profiling) {
+                profiling = false;
+                branchOrder.sampled();
+            }
+        }
+    }
+
+    private boolean matchProgram(int start) {
+        int size = cursor.size();
+        if (program == null || !pattern.isMemoized(spansOnly) || size < 0
+                || (long) (size + 1) * program.size() > MAX_MEMO_BITS)
+            return matchFrom(start, false);
+        int words = (int) (((long) (size + 1) * program.size() + 63) >>> 6);
+        if (visited == null || visited.length < words)
+            visited = new long[words];
+        visitedMax = start;
+        try {
+            return matchFrom(start, true);
+        } finally {
+            Arrays.fill(visited, (start * program.size()) >>> 6,
+                    Math.min(words, (int) (((long) (visitedMax + 1) * program.size() + 63) >>> 6)), 0);
+        }
+    }
+
+    private boolean matchFrom(int start, boolean memoized) {
+        PrefixScan scan = elementKey == null || requiredStart ? null : pattern.getPrefixScan();
+        for (int i = start; cursor.has(i); ++i) {
             if (requiredStart && i > 0)
                 break;
+            if (scan != null && (i = scan.next(cursor, elementKey, i)) < 0)
+                break;
+            if (cursor.sequential)
+                cursor.release(spansOnly || cursor.isRereadable() ? i : lowestCapture(i));
+            if (counting)
+                ++startOffsets;
             this.from = i;
-            if (search(nfa.getStart(), i)) {
-                if (requiredEnd && to != len)
+            if (loopEntries.length > 0)
+                Arrays.fill(loopEntries, -1);
+            if (program != null ? run(i, memoized) : search(nfa.getStart(), i)) {
+                if (requiredEnd && cursor.has(to))
                     continue;
                 matched = true;
-                groupMap.get(0).push(new Pair<>(this.from, this.to));
+                pushGroup(0, this.from, this.to);
                 return true;
             }
         }
@@ -53,12 +280,222 @@ public class Matcher<T, R> {
     }
 
     private boolean search(NFA<T>.State state, int from) {
-        int len = input.size();
-        if (from > len) {
+        if (!counting)
+            return visit(state, from);
+        step();
+        if (++depth > peakDepth)
+            peakDepth = depth;
+        boolean found = visit(state, from);
+        --depth;
+        if (!found)
+            ++backtracks;
+        return found;
+    }
+
+    private void step() {
+        if (++statesVisited > limits.getMaxSteps())
+            exceeded(MatchBudgetExceededException.Reason.STEPS);
+        if (--untilDeadlineCheck == 0) {
+            untilDeadlineCheck = limits.getCheckInterval();
+            if (limits.hasDeadline() && System.nanoTime() - deadline > 0)
+                exceeded(MatchBudgetExceededException.Reason.DEADLINE);
+        }
+    }
+
+    /**
+     * compiled tier of {@link #search}, visiting the states in the same order
+     * @param memoized whether to skip the (state, position) pairs visited since the start of
+     *                 the match: the first visit tried every continuation, so a match reachable
+     *                 from them was already found; the states on cycles reading no element are
+     *                 visited again, see {@link Program#cycles}
+     */
+    private boolean run(int from, boolean memoized) {
+        Program<T> program = this.program;
+        BranchOrder<T>.Sampler sampler = profiling ? this.sampler : null;
+        if (sampler != null)
+            sampler.start();
+        int top = 0;
+        int state = 0;
+        int pos = from;
+        if (choiceStates == null) {
+            choiceStates = new int[16];
+            choicePositions = new int[16];
+        }
+        while (true) {
+            if (counting)
+                step();
+            int next = pos;
+            boolean alive = !memoized || program.cycles[state] || markVisited(state, pos);
+            if (alive) switch (program.opcodes[state]) {
+                case Program.LITERAL:
+                    if (!cursor.has(pos)) {
+                        alive = false;
+                        break;
+                    }
+                    if (counting && ++predicateCalls > limits.getMaxPredicateCalls())
+                        exceeded(MatchBudgetExceededException.Reason.PREDICATE_CALLS);
+                    alive = compare.test(program.literals[state], cursor.get(pos));
+                    next = pos + 1;
+                    break;
+                case Program.WILDCARD:
+                    alive = cursor.has(pos);
+                    next = pos + 1;
+                    break;
+                case Program.CAPTURESTART:
+                    pushGroup(program.captures[state], pos, -1);
+                    break;
+                case Program.CAPTUREEND:
+                    groupEnds[program.captures[state]][groupSizes[program.captures[state]] - 1] = pos;
+                    break;
+                case Program.MATCHED:
+                    if (!requiredEnd || !cursor.has(pos)) {
+                        if (sampler != null)
+                            sampler.finish(true);
+                        this.to = pos;
+                        return true;
+                    }
+                    alive = false;
+                    break;
+                case Program.LOOP:
+                    int loop = program.loops[state];
+                    if (loopEntries[loop] == pos) {
+                        /** the last iteration did not advance */
+                        alive = false;
+                        break;
+                    }
+                    top = pushChoice(top, RESTORE - loop, loopEntries[loop]);
+                    loopEntries[loop] = pos;
+                    break;
+                case Program.DISPATCH:
+                    if (elementKey == null)
+                        break;
+                    top = dispatch(program, state, pos, top);
+                    alive = false;
+                    break;
+                case Program.ATOMIC:
+                    top = pushChoice(top, BARRIER, pos);
+                    state = program.outs[state][0];
+                    continue;
+                case Program.ATOMICEND:
+                    /** drop the choices left in the body, restoring the loop entries made in it */
+                    for (int entry; (entry = choiceStates[--top]) != BARRIER; ) {
+                        if (entry < BARRIER)
+                            loopEntries[RESTORE - entry] = choicePositions[top];
+                    }
+                    break;
+                default:
+                    break;
+            }
+            int[] outs = program.outs[state];
+            if (alive && outs.length > 0) {
+                for (int i = outs.length - 1; i > 0; --i)
+                    top = pushChoice(top, outs[i], next);
+                if (sampler != null && outs.length == 2)
+                    sampler.branch(state, outs[0], top);
+                if (counting && top > peakDepth)
+                    peakDepth = top;
+                state = outs[0];
+                pos = next;
+                continue;
+            }
+            do {
+                if (top == 0) {
+                    if (sampler != null)
+                        sampler.finish(false);
+                    return false;
+                }
+                state = choiceStates[--top];
+                if (state < BARRIER)
+                    loopEntries[RESTORE - state] = choicePositions[top];
+            } while (state < 0);
+            if (sampler != null)
+                sampler.backtrack(top);
+            if (counting)
+                ++backtracks;
+            pos = choicePositions[top];
+        }
+    }
+
+    /**
+     * push the candidate alternatives of a dispatch state, keyed literals are already
+     * accepted by the key lookup and continue with their out states
+     * @return new top of the backtrack stack
+     */
+    private int dispatch(Program<T> program, int state, int pos, int top) {
+        PostExpression.DispatchNode dnode = program.dispatches[state];
+        int[] outs = program.outs[state];
+        int[] candidates = !cursor.has(pos) ? dnode.fallback : dnode.candidates(elementKey.apply(cursor.get(pos)));
+        for (int i = candidates.length - 1; i >= 0; --i) {
+            int alternative = outs[candidates[i]];
+            if (!dnode.keyed[candidates[i]]) {
+                top = pushChoice(top, alternative, pos);
+                continue;
+            }
+            int[] nexts = program.outs[alternative];
+            for (int j = nexts.length - 1; j >= 0; --j)
+                top = pushChoice(top, nexts[j], pos + 1);
+        }
+        if (counting && top > peakDepth)
+            peakDepth = top;
+        return top;
+    }
+
+    /**
+     * @return whether the pair was not visited yet
+     */
+    private boolean markVisited(int state, int pos) {
+        int bit = pos * program.size() + state;
+        long mask = 1L << bit;
+        if ((visited[bit >>> 6] & mask) != 0)
+            return false;
+        visited[bit >>> 6] |= mask;
+        if (pos > visitedMax)
+            visitedMax = pos;
+        return true;
+    }
+
+    private int pushChoice(int top, int state, int pos) {
+        if (top == choiceStates.length) {
+            choiceStates = Arrays.copyOf(choiceStates, top * 2);
+            choicePositions = Arrays.copyOf(choicePositions, top * 2);
+        }
+        choiceStates[top] = state;
+        choicePositions[top] = pos;
+        return top + 1;
+    }
+
+    /**
+     * search the outs of a loop whose body can match the empty sequence, entering the body only
+     * if the current path did not enter it at the same position, see {@link NFA#getLoopCount()};
+     * the entry is restored on the way back, as the LOOP states of the compiled tier do
+     */
+    private boolean iterate(NFA<T>.State state, int from) {
+        NFA<T>.State body = state.body();
+        for (NFA<T>.State next : state.outList) {
+            if (next != body) {
+                if (search(next, from))
+                    return true;
+                continue;
+            }
+            int entered = loopEntries[state.loop];
+            if (entered == from)
+                continue;
+            loopEntries[state.loop] = from;
+            boolean found = search(next, from);
+            loopEntries[state.loop] = entered;
+            if (found)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean visit(NFA<T>.State state, int from) {
+        boolean atEnd = !cursor.has(from);
+        if (atEnd && from > 0 && !cursor.has(from - 1)) {
             System.err.println("Error : error happenes in matching");
             return false;
         }
-        if (from == len) {
+        if (atEnd) {
             switch (state.node.type) {
                 case WILDCARD:
                 case LITERAL:
@@ -73,7 +510,7 @@ public class Matcher<T, R> {
         switch (state.node.type) {
             case CAPTURESTART:
                 PostExpression.CaptureStartNode csnode = (PostExpression.CaptureStartNode) state.node;
-                groupMap.get(csnode.id).push(new Pair<>(from, -1));
+                pushGroup(csnode.id, from, -1);
                 for (NFA<T>.State next : state.outList) {
                     if (search(next, from))
                         return true;
@@ -81,18 +518,44 @@ public class Matcher<T, R> {
                 return false;
             case CAPTUREEND:
                 PostExpression.CaptureEndNode cenode = (PostExpression.CaptureEndNode) state.node;
-                groupMap.get(cenode.id).peek().setSecond(from);
+                groupEnds[cenode.id][groupSizes[cenode.id] - 1] = from;
                 for (NFA<T>.State next : state.outList) {
                     if (search(next, from))
                         return true;
                 }
                 return false;
+            case DISPATCH:
+                PostExpression.DispatchNode dnode = (PostExpression.DispatchNode) state.node;
+                if (elementKey == null) {
+                    for (NFA<T>.State next : state.outList) {
+                        if (search(next, from))
+                            return true;
+                    }
+                    return false;
+                }
+                List<NFA<T>.State> alternatives = state.outList;
+                int[] candidates = atEnd ? dnode.fallback : dnode.candidates(elementKey.apply(cursor.get(from)));
+                for (int i : candidates) {
+                    NFA<T>.State alternative = alternatives.get(i);
+                    if (!dnode.keyed[i]) {
+                        if (search(alternative, from))
+                            return true;
+                        continue;
+                    }
+                    for (NFA<T>.State next : alternative.outList) {
+                        if (search(next, from + 1))
+                            return true;
+                    }
+                }
+                return false;
             case BRANCH:
             case ALTERN:
             case NGREPEAT:
             case NGKLEENE:
             case KLEENE:
             case REPEAT:
+                if (state.loop >= 0)
+                    return iterate(state, from);
                 for (NFA<T>.State next : state.outList) {
                     if (search(next, from))
                         return true;
@@ -106,7 +569,9 @@ public class Matcher<T, R> {
                 return false;
             case LITERAL:
                 PostExpression.LiteralNode<T> lnode = (PostExpression.LiteralNode<T>) state.node;
-                if (compare.test(lnode.content, input.get(from))) {
+                if (counting && ++predicateCalls > limits.getMaxPredicateCalls())
+                    exceeded(MatchBudgetExceededException.Reason.PREDICATE_CALLS);
+                if (compare.test(lnode.content, cursor.get(from))) {
                     for (NFA<T>.State next : state.outList) {
                         if (search(next, from + 1))
                             return true;
@@ -118,6 +583,19 @@ public class Matcher<T, R> {
                     return false;
                 this.to = from;
                 return true;
+            case ATOMIC:
+                /** the first way through the body to its end state is final */
+                if (!search(state.outList.get(0), from))
+                    return false;
+                int end = atomicEnd;
+                for (NFA<T>.State next : state.outList.get(1).outList) {
+                    if (search(next, end))
+                        return true;
+                }
+                return false;
+            case ATOMICEND:
+                atomicEnd = from;
+                return true;
             default:
                 System.err.println("Error : in NFA");
                 return false;
@@ -125,55 +603,140 @@ public class Matcher<T, R> {
         }
     }
 
-    private Pair<Integer, Integer> groupBound(int groupNo) {
+    /**
+     * @return the lowest of the offset and the starts of the captures a match could still
+     * report: the topmost closed capture of each group, as captures below it are never reported
+     * and the unclosed ones above it are dropped
+     */
+    private int lowestCapture(int offset) {
+        int lowest = offset;
+        for (int g = 1; g <= captureCound; ++g) {
+            for (int top = groupSizes[g] - 1; top >= 0; --top) {
+                if (groupEnds[g][top] != -1) {
+                    lowest = Math.min(lowest, groupStarts[g][top]);
+                    break;
+                }
+            }
+        }
+        return lowest;
+    }
+
+    private void pushGroup(int groupNo, int start, int end) {
+        int size = groupSizes[groupNo];
+        if (size == groupStarts[groupNo].length) {
+            groupStarts[groupNo] = Arrays.copyOf(groupStarts[groupNo], size * 2);
+            groupEnds[groupNo] = Arrays.copyOf(groupEnds[groupNo], size * 2);
+        }
+        groupStarts[groupNo][size] = start;
+        groupEnds[groupNo][size] = end;
+        groupSizes[groupNo] = size + 1;
+    }
+
+    /**
+     * drop unclosed captures on top of the group stack
+     * @return index of the closed capture of the group, or -1
+     */
+    private int groupBound(int groupNo) {
         if (!matched) {
             System.err.println("Error : call group() without matched result");
-            return null;
+            return -1;
         }
         if (groupNo > captureCound)
-            return null;
-        Stack<Pair<Integer, Integer>> stack = groupMap.get(groupNo);
-        Pair<Integer,Integer> pair;
-        while (!stack.empty()) {
-            pair = stack.peek();
-            if (stack.peek().getSecond() != -1)
-                return pair;
-            stack.pop();
+            return -1;
+        while (groupSizes[groupNo] > 0) {
+            int top = groupSizes[groupNo] - 1;
+            if (groupEnds[groupNo][top] != -1)
+                return top;
+            groupSizes[groupNo] = top;
         }
-        return null;
+        return -1;
+    }
+
+    /**
+     * @return start index of the group in the input, or -1 if the group is not captured
+     */
+    public int start(int groupNo) {
+        int bound = groupBound(groupNo);
+        return bound == -1 ? -1 : groupStarts[groupNo][bound];
+    }
+
+    /**
+     * @return end index (exclusive) of the group in the input, or -1 if the group is not captured
+     */
+    public int end(int groupNo) {
+        int bound = groupBound(groupNo);
+        return bound == -1 ? -1 : groupEnds[groupNo][bound];
+    }
+
+    public int groupCount() {
+        return captureCound;
     }
 
     public List<R> group(int groupNo) {
-        Pair<Integer, Integer> pair = groupBound(groupNo);
-        if (pair == null)
+        int bound = groupBound(groupNo);
+        if (bound == -1)
             return new ArrayList<>();
-        return input.subList(pair.getFirst(), pair.getSecond());
+        return input.subList(groupStarts[groupNo][bound], groupEnds[groupNo][bound]);
+    }
+
+    /**
+     * report the bounds of all captured groups of the last match without allocation
+     */
+    public void forEachGroup(GroupVisitor visitor) {
+        if (!matched)
+            return;
+        for (int i = 0; i <= captureCound; ++i) {
+            int bound = groupBound(i);
+            if (bound != -1)
+                visitor.visit(i, groupStarts[i][bound], groupEnds[i][bound]);
+        }
     }
 
     public MatchedResult<R> getResult() {
         if (!matched)
             return null;
-        MatchedResult<R> result = new MatchedResult<>(captureCound, input);
+        List<Pair<Integer, Integer>> groups = new ArrayList<>(captureCound + 1);
+        int lowest = from;
+        int highest = to;
         for (int i = 0; i <= captureCound; ++i) {
-            result.groups.add(groupBound(i));
+            int bound = groupBound(i);
+            groups.add(bound == -1 ? null : new Pair<>(groupStarts[i][bound], groupEnds[i][bound]));
+            if (bound != -1) {
+                lowest = Math.min(lowest, groupStarts[i][bound]);
+                highest = Math.max(highest, groupEnds[i][bound]);
+            }
         }
+        MatchedResult<R> result = new MatchedResult<>(captureCound, cursor.snapshot(lowest, highest), lowest);
+        result.groups.addAll(groups);
         return result;
     }
 
+    @FunctionalInterface
+    public interface GroupVisitor {
+        void visit(int groupNo, int start, int end);
+    }
+
     public static class MatchedResult<R> {
         List<Pair<Integer, Integer>> groups;
         List<R> input;
+        /** index in the whole input of the first element of input */
+        int offset;
 
         public MatchedResult(int captureCount, List<R> input) {
+            this(captureCount, input, 0);
+        }
+
+        MatchedResult(int captureCount, List<R> input, int offset) {
             this.groups = new ArrayList<>(captureCount + 1);
             this.input = input;
+            this.offset = offset;
         }
 
         public List<R> group(int groupNo) {
             Pair<Integer, Integer> pair = groups.get(groupNo);
             if (pair == null)
                 return new ArrayList<>();
-            return input.subList(pair.getFirst(), pair.getSecond());
+            return input.subList(pair.getFirst() - offset, pair.getSecond() - offset);
         }
     }
 
@@ -13,16 +13,23 @@ import java.util.function.Function;
 public class NFA<T> {
     private final int groupCount;
     private State start;
+    /** number of loops whose body can match the empty sequence, see {@link #markEmptyLoops()} */
+    private int loopCount;
 
     private NFA(PostExpression<T> postExpression) {
         this.groupCount = postExpression.getCaptureCount();
         parse(postExpression.getSequence());
+        markEmptyLoops();
     }
 
     int getGroupCount() {
         return groupCount;
     }
 
+    int getLoopCount() {
+        return loopCount;
+    }
+
     State getStart() {
         return start;
     }
@@ -30,6 +37,103 @@ public class NFA<T> {
     static <T> NFA<T> compile(PostExpression<T> postExpression) {
         return new NFA<>(postExpression);
     }
+
+    /**
+     * turn branches with at least two keyed literal alternatives into dispatch states,
+     * so that one key lookup per element selects the accepting literals
+     * @param literalKey key of an equality literal, or null if the literal is not an equality test
+     */
+    void indexLiterals(Function<T, ?> literalKey) {
+        for (State state : getStates()) {
+            if (state.node.type != RegexElement.BRANCH)
+                continue;
+            List<State> alternatives = new ArrayList<>();
+            flattenBranch(state, alternatives);
+            Object[] keys = new Object[alternatives.size()];
+            int keyedCount = 0;
+            for (int i = 0; i < keys.length; ++i) {
+                State alternative = alternatives.get(i);
+                if (alternative.node.type != RegexElement.LITERAL)
+                    continue;
+                @SuppressWarnings("unchecked")
+                PostExpression.LiteralNode<T> literal = (PostExpression.LiteralNode<T>) alternative.node;
+                keys[i] = literalKey.apply(literal.content);
+                if (keys[i] != null)
+                    keyedCount++;
+            }
+            if (keyedCount < 2)
+                continue;
+            state.node = new PostExpression.DispatchNode(keys);
+            state.outList = new ArrayList<>(alternatives);
+        }
+    }
+
+    /**
+     * branches have no side effect, so nested branches are tried in the same order
+     * as the list of their leaf alternatives
+     */
+    private void flattenBranch(State state, List<State> alternatives) {
+        for (State next : state.outList) {
+            if (next.node.type == RegexElement.BRANCH || next.node.type == RegexElement.DISPATCH)
+                flattenBranch(next, alternatives);
+            else
+                alternatives.add(next);
+        }
+    }
+
+    /**
+     * number the loop states whose body can lead back to them without reading an element;
+     * the matchers record the position each such loop last entered its body at and don't
+     * enter it again at the same position, as the iteration did not advance and repeating
+     * it would never end
+     */
+    private void markEmptyLoops() {
+        for (State state : getStates()) {
+            if (state.isLoop() && reachesEmpty(state.body(), state))
+                state.loop = loopCount++;
+        }
+    }
+
+    /**
+     * @return whether the target is reachable from the state through states reading no element
+     */
+    private boolean reachesEmpty(State from, State target) {
+        Set<State> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<State> stack = new ArrayDeque<>();
+        stack.push(from);
+        while (!stack.isEmpty()) {
+            State state = stack.pop();
+            if (state == target)
+                return true;
+            if (!visited.add(state) || state.node.type == RegexElement.LITERAL
+                    || state.node.type == RegexElement.WILDCARD)
+                continue;
+            for (State next : state.outList)
+                stack.push(next);
+        }
+        return false;
+    }
+
+    /**
+     * @return all states reachable from start, numbered in depth-first order;
+     * the start state is always numbered 0
+     */
+    List<State> getStates() {
+        List<State> states = new ArrayList<>();
+        Set<State> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<State> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            State state = stack.pop();
+            if (!visited.add(state))
+                continue;
+            states.add(state);
+            ListIterator<State> it = state.outList.listIterator(state.outList.size());
+            while (it.hasPrevious())
+                stack.push(it.previous());
+        }
+        return states;
+    }
 //    enum Type {
 //        SPLIT, MATCHED, LITERAL, WILDCARD, GREEDY, NOGREEDY
 //    }
@@ -37,7 +141,10 @@ public class NFA<T> {
     class State {
         Node node;
         List<State> outList;
+        /** index of a loop whose body can match the empty sequence, -1 for the other states */
+        int loop = -1;
 
+        @SafeVarargs
         State(Node node, State ... outs) {
             this.node = node;
             this.outList = new LinkedList<>();
@@ -57,6 +164,27 @@ public class NFA<T> {
         void addOut(int pos, State out) {
             this.outList.add(pos, out);
         }
+
+        boolean isLoop() {
+            switch (node.type) {
+                case KLEENE:
+                case NGKLEENE:
+                case REPEAT:
+                case NGREPEAT:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * @return the out state of a loop which repeats it, the other out leaves the loop;
+         * non-greedy loops have the exit patched in front
+         */
+        State body() {
+            return node.type == RegexElement.NGKLEENE || node.type == RegexElement.NGREPEAT
+                    ? outList.get(outList.size() - 1) : outList.get(0);
+        }
     }
 
     class Fragment {
@@ -68,6 +196,7 @@ public class NFA<T> {
             this.outList = outList;
         }
 
+        @SafeVarargs
         Fragment(State start, State... outs) {
             this(start, new LinkedList<>());
             if (outs.length > 0)
@@ -167,6 +296,14 @@ public class NFA<T> {
                     f.setOutList(list);
                     stack.push(f);
                     break;
+                case ATOMIC:
+                    /** the atomic state leads to the body and knows its end state */
+                    f1 = stack.pop();
+                    State end = new State(new PostExpression.Node(RegexElement.ATOMICEND));
+                    f1.patch(new Fragment(end));
+                    f = new Fragment(new State(node, f1.getStart(), end), end);
+                    stack.push(f);
+                    break;
                 case CAPTURESTART:
                     f1 = stack.pop();
                     f = new Fragment(new State(node));
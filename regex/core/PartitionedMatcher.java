@@ -0,0 +1,186 @@
+package regex.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+/**
+ * Streaming matcher for many interleaved streams, one per key. The state of a key is the
+ * set of active positions of the pattern stored as a few longs, followed by the time the
+ * key was last fed. Keys whose runs have all died are dropped, so only the keys in the
+ * middle of a partial match take memory; for patterns starting with "^" a dead key is
+ * kept with an empty state, as it can never match again.
+ * Keys are spread over independently locked stripes, so feeding is thread safe.
+ */
+public class PartitionedMatcher<T, K, R> {
+    private final Glushkov<T> automaton;
+    private final boolean requiredStart;
+    private final boolean requiredEnd;
+    /** identifies the pattern in checkpoints, see {@link StreamCheckpoint#fingerprint} */
+    private final long fingerprint;
+    private final BiPredicate<T, R> compare;
+    private final Stripe<K>[] stripes;
+
+    private static class Stripe<K> {
+        final Map<K, long[]> states = new HashMap<>();
+        final long[] empty;
+        final long[] next;
+
+        Stripe(int words) {
+            this.empty = new long[words];
+            this.next = new long[words];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    PartitionedMatcher(Pattern<T> pattern, BiPredicate<T, R> compare, int concurrency) {
+        this.automaton = pattern.getGlushkov();
+        if (automaton == null)
+            throw new IllegalStateException("pattern has no position automaton");
+        this.requiredStart = pattern.isRequiredStart();
+        this.requiredEnd = pattern.isRequiredEnd();
+        this.fingerprint = StreamCheckpoint.fingerprint(pattern);
+        this.compare = compare;
+        int count = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        this.stripes = (Stripe<K>[]) new Stripe<?>[count];
+        for (int i = 0; i < count; ++i)
+            stripes[i] = new Stripe<>(automaton.words);
+    }
+
+    private Stripe<K> stripe(K key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    /**
+     * read the next element of the stream of the key
+     * @return whether a non-empty match ends at the element; for patterns ending with "$",
+     * whether the stream of the key read so far is matched
+     */
+    public boolean feed(K key, R element) {
+        Stripe<K> stripe = stripe(key);
+        synchronized (stripe) {
+            long[] state = stripe.states.get(key);
+            boolean starting = state == null || !requiredStart;
+            if (state != null && requiredStart && isEmpty(state))
+                return false;
+            long[] next = stripe.next;
+            boolean alive = automaton.step(state == null ? stripe.empty : state, starting, element, compare, next);
+            if (!alive && !requiredStart) {
+                if (state != null)
+                    stripe.states.remove(key);
+                return false;
+            }
+            if (state == null) {
+                state = new long[automaton.words + 1];
+                stripe.states.put(key, state);
+            }
+            System.arraycopy(next, 0, state, 0, automaton.words);
+            state[automaton.words] = System.nanoTime();
+            return alive && automaton.accepts(next);
+        }
+    }
+
+    private boolean isEmpty(long[] state) {
+        for (int w = 0; w < automaton.words; ++w) {
+            if (state[w] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * forget the stream of the key, its next element starts a new stream
+     */
+    public void remove(K key) {
+        Stripe<K> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.states.remove(key);
+        }
+    }
+
+    /**
+     * forget the keys not fed for the given time
+     * @return number of keys removed
+     */
+    public int expireIdle(long timeout, TimeUnit unit) {
+        long now = System.nanoTime();
+        long idle = unit.toNanos(timeout);
+        int removed = 0;
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<long[]> iterator = stripe.states.values().iterator();
+                while (iterator.hasNext()) {
+                    if (now - iterator.next()[automaton.words] >= idle) {
+                        iterator.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return number of keys with a stored state
+     */
+    public int size() {
+        int result = 0;
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                result += stripe.states.size();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * write the states of all keys, see {@link StreamCheckpoint}; each stripe is locked
+     * while it is written, so a checkpoint taken while feeding is consistent per key
+     */
+    public void checkpoint(DataOutput out, Codec<K> codec) throws IOException {
+        StreamCheckpoint.writeHeader(out, StreamCheckpoint.PARTITIONED, automaton, requiredStart, requiredEnd, fingerprint);
+        for (Stripe<K> stripe : stripes) {
+            synchronized (stripe) {
+                out.writeInt(stripe.states.size());
+                for (Map.Entry<K, long[]> entry : stripe.states.entrySet()) {
+                    codec.write(entry.getKey(), out);
+                    for (int w = 0; w < automaton.words; ++w)
+                        out.writeLong(entry.getValue()[w]);
+                }
+            }
+        }
+        out.writeInt(-1);
+    }
+
+    /**
+     * add the keys of a checkpoint of a matcher of the same pattern, replacing the states
+     * of keys already present; restored keys count as fed now for the idle expiry
+     */
+    public PartitionedMatcher<T, K, R> restore(DataInput in, Codec<K> codec) throws IOException {
+        StreamCheckpoint.readHeader(in, StreamCheckpoint.PARTITIONED, automaton, requiredStart, requiredEnd, fingerprint);
+        long now = System.nanoTime();
+        for (int count = in.readInt(); count != -1; count = in.readInt()) {
+            if (count < 0)
+                throw new IOException("invalid key count " + count);
+            for (int i = 0; i < count; ++i) {
+                K key = codec.read(in);
+                long[] state = new long[automaton.words + 1];
+                for (int w = 0; w < automaton.words; ++w)
+                    state[w] = in.readLong();
+                state[automaton.words] = now;
+                Stripe<K> stripe = stripe(key);
+                synchronized (stripe) {
+                    stripe.states.put(key, state);
+                }
+            }
+        }
+        return this;
+    }
+}
@@ -1,21 +1,58 @@
 package regex.core;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiPredicate;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created by tshun_000 on 3/24/2015.
  */
 public class Pattern<T> {
+    private static final AtomicLong ids = new AtomicLong();
+
+    /** identifies the pattern in the compile and match events of Flight Recorder */
+    private final long id = ids.incrementAndGet();
     private final boolean requiredStart;
     private final boolean requiredEnd;
     private NFA<T> nfa;
+    private Glushkov<T> glushkov;
+    private ShiftAndEngine<T> shiftAnd;
+    private final PatternAnalysis analysis;
+    /** post expression the automata are built from, written by {@link PatternSerializer} */
+    private final List<PostExpression.Node> sequence;
+    private Function<T, ?> literalKey;
+    /** skip search for the keyed literals all matches start with, null if there are none */
+    private PrefixScan prefixScan;
+    private volatile MatchListener listener = MatchListener.NONE;
+    private final ThreadLocal<Matcher<T, ?>> matcherPool = new ThreadLocal<>();
+    private volatile Program<T> program;
+    private volatile int compileThreshold = -1;
+    private volatile BranchOrder<T> branchOrder;
+    /** matches run before the compiled tier, counted by all threads sharing the pattern */
+    private final AtomicInteger hotness = new AtomicInteger();
 
     private Pattern(PostExpression<T> postExpression, Function<String, T> constructor) {
         this.requiredStart = postExpression.isRequiredStart();
         this.requiredEnd = postExpression.isRequiredEnd();
+        this.sequence = postExpression.getSequence();
         this.nfa = NFA.compile(postExpression);
+        this.glushkov = Glushkov.build(postExpression.getSequence());
+        this.shiftAnd = ShiftAndEngine.of(glushkov);
+        this.analysis = PatternAnalysis.analyze(postExpression.getSequence(), nfa,
+                requiredStart, requiredEnd, glushkov != null);
+    }
+
+    public long getId() {
+        return id;
     }
 
     boolean isRequiredStart() {
@@ -30,14 +67,318 @@ public class Pattern<T> {
         return nfa;
     }
 
+    List<PostExpression.Node> getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @param spansOnly whether the groups other than the whole match are ignored
+     * @return the compiled tier of this pattern, or null while matching is interpreted;
+     * matches running memoized always get it, as only the compiled tier has the memo
+     */
+    Program<T> getProgram(boolean spansOnly) {
+        Program<T> result = program;
+        if (result == null && (isMemoized(spansOnly)
+                || compileThreshold >= 0 && hotness.incrementAndGet() >= compileThreshold))
+            result = compileProgram();
+        return result;
+    }
+
+    /**
+     * switch all matchers to the compiled tier, which runs the automaton
+     * as a flat program with an explicit backtrack stack
+     */
+    public void enableCompiledTier() {
+        compileProgram();
+    }
+
+    private synchronized Program<T> compileProgram() {
+        if (program == null)
+            program = Program.compile(nfa);
+        return program;
+    }
+
+    /**
+     * switch to the compiled tier automatically once this many matches have been run,
+     * a negative threshold disables the automatic switch
+     */
+    public void setCompileThreshold(int matches) {
+        this.compileThreshold = matches;
+    }
+
+    public boolean isCompiled() {
+        return program != null;
+    }
+
+    /**
+     * run {@link #test(List, BiPredicate)} on the compiled tier with the alternatives of the
+     * branches reordered by their sampled hit rates and costs, see {@link BranchOrder};
+     * worth it over the automaton engines when literals are expensive predicates and some
+     * alternatives match much more often or cheaper than others
+     * @return the order, shared by all threads testing this pattern
+     * @throws IllegalStateException if the pattern has atomic groups, whose matches depend on the order
+     */
+    public synchronized BranchOrder<T> enableAdaptiveBranchOrder() {
+        if (analysis.hasAtomicGroups())
+            throw new IllegalStateException("the alternatives of a pattern with atomic groups can't be reordered");
+        if (branchOrder == null)
+            branchOrder = new BranchOrder<>(nfa, compileProgram());
+        return branchOrder;
+    }
+
+    /**
+     * @return the adaptive branch order, or null if it is not enabled
+     */
+    public BranchOrder<T> getBranchOrder() {
+        return branchOrder;
+    }
+
+    /**
+     * whether the compiled tier skips the (state, position) pairs it already visited
+     * @param spansOnly whether the groups other than the whole match are ignored
+     */
+    boolean isMemoized(boolean spansOnly) {
+        if (spansOnly)
+            return analysis.getRisk() == PatternAnalysis.Risk.EXPONENTIAL && !analysis.hasAtomicGroups();
+        return analysis.getMatchStrategy() == PatternAnalysis.Strategy.MEMOIZED_BACKTRACKING;
+    }
+
+    public PatternAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    /**
+     * @return description of the structure of this pattern, the engines chosen for it, their
+     * expected cost and whether the backtracking matches currently run interpreted or compiled
+     */
+    public String explain() {
+        String tier;
+        if (program != null || analysis.getMatchStrategy() == PatternAnalysis.Strategy.MEMOIZED_BACKTRACKING)
+            tier = "compiled";
+        else if (compileThreshold >= 0)
+            tier = "interpreted, compiled after " + compileThreshold + " matches";
+        else
+            tier = "interpreted";
+        return analysis.explain() + "\ntier: " + tier;
+    }
+
+    Glushkov<T> getGlushkov() {
+        return glushkov;
+    }
+
+    MatchListener getListener() {
+        return listener;
+    }
+
+    /**
+     * attach a listener to all matchers created afterwards,
+     * e.g. a {@link PatternStatistics} collecting per-pattern histograms
+     */
+    public void setListener(MatchListener listener) {
+        this.listener = listener == null ? MatchListener.NONE : listener;
+    }
+
     public static <T> Pattern<T> compile(String regex, Function<String, T> constructor) {
-        PostExpression<T> postExpression = PostExpression.compile(regex, constructor);
-        return new Pattern<>(postExpression, constructor);
+        return build(regex, constructor, null);
+    }
+
+    /**
+     * compile with an index of equality literals: branches and brackets of literals with a
+     * key are looked up by the key of the input element instead of testing every literal,
+     * see {@link #matcher(List, BiPredicate, Function)}; when every match starts with keyed
+     * literals, those matchers only start the automaton where the keys of the input match them
+     * @param literalKey key of a literal accepting exactly the elements of the same key,
+     *                   or null if the literal is not an equality test
+     */
+    public static <T> Pattern<T> compile(String regex, Function<String, T> constructor, Function<T, ?> literalKey) {
+        return build(regex, constructor, literalKey);
+    }
+
+    private static <T> Pattern<T> build(String regex, Function<String, T> constructor, Function<T, ?> literalKey) {
+        return build(() -> PostExpression.compile(regex, constructor), literalKey, regex);
+    }
+
+    /**
+     * @param literalKey key of the equality literals, or null to test every literal
+     * @param source regex string or builder the pattern is compiled from, printed if the compile is recorded
+     */
+    static <T> Pattern<T> build(Supplier<PostExpression<T>> parser, Function<T, ?> literalKey, Object source) {
+        Object event = RegexEvents.beginCompile();
+        PostExpression<T> postExpression = parser.get();
+        Pattern<T> pattern = new Pattern<>(postExpression, postExpression.getElementConstructor());
+        if (literalKey != null) {
+            pattern.literalKey = literalKey;
+            pattern.nfa.indexLiterals(literalKey);
+            pattern.prefixScan = PrefixScan.of(pattern.nfa, literalKey);
+        }
+        RegexEvents.endCompile(event, pattern, source);
+        return pattern;
+    }
+
+    Function<T, ?> getLiteralKey() {
+        return literalKey;
+    }
+
+    PrefixScan getPrefixScan() {
+        return prefixScan;
     }
 
     public <R> Matcher<T, R> matcher(List<R> input, BiPredicate<T, R> compare) {
         return new Matcher<>(this, input, compare);
     }
 
+    public <R> Matcher<T, R> matcher(List<R> input, BiPredicate<T, R> compare, MatchLimits limits) {
+        return new Matcher<>(this, input, compare, limits, null);
+    }
+
+    public <R> Matcher<T, R> matcher(R[] input, BiPredicate<T, R> compare) {
+        return new Matcher<>(this, InputCursor.of(input), compare, MatchLimits.NONE, null);
+    }
+
+    /**
+     * matcher reading a sequential source once, e.g. {@code stream.iterator()}; only the elements
+     * from the start offset of the current search on are buffered, so the groups of a match
+     * have to be read before the next call of {@link Matcher#find()}, and {@link Matcher#find(int)}
+     * can't go back before the last match
+     */
+    public <R> Matcher<T, R> matcher(Iterator<R> input, BiPredicate<T, R> compare) {
+        return new Matcher<>(this, InputCursor.of(input), compare, MatchLimits.NONE, null);
+    }
+
+    /**
+     * @param elementKey key of an input element, equal to the key of the literals accepting it
+     */
+    public <R> Matcher<T, R> matcher(List<R> input, BiPredicate<T, R> compare, Function<R, ?> elementKey) {
+        return new Matcher<>(this, input, compare, MatchLimits.NONE, elementKey);
+    }
+
+    /**
+     * whether the input contains a match, without computing groups, on the engine chosen by
+     * {@link PatternAnalysis#getTestStrategy()}: patterns with at most {@value ShiftAndEngine#MAX_POSITIONS}
+     * literals and wildcards run on a bit-parallel engine, unless {@link #enableAdaptiveBranchOrder()} is on
+     */
+    public <R> boolean test(List<R> input, BiPredicate<T, R> compare) {
+        BranchOrder<T> order = branchOrder;
+        if (order != null)
+            return matcher(input, compare).spansOnly().adaptive(order).match();
+        switch (analysis.getTestStrategy()) {
+            case BIT_PARALLEL:
+                return shiftAnd.test(input, compare, requiredStart, requiredEnd);
+            case NFA_SIMULATION:
+                return glushkov.test(input, compare, requiredStart, requiredEnd);
+            default:
+                return matcher(input, compare).spansOnly().match();
+        }
+    }
+
+    /**
+     * same as {@link #test(List, BiPredicate)} on an input of the given length whose
+     * literals are tested block by block, e.g. over a primitive column
+     */
+    public boolean test(int length, BatchPredicate<T> predicate) {
+        if (shiftAnd != null)
+            return shiftAnd.test(length, predicate, requiredStart, requiredEnd);
+        List<Integer> indices = new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return index;
+            }
+
+            @Override
+            public int size() {
+                return length;
+            }
+        };
+        return matcher(indices, (T literal, Integer index) -> predicate.test(literal, index, 1) != 0).spansOnly().match();
+    }
+
+    /**
+     * lazily split the input around the matches of this pattern, like {@link String#split(String, int)}
+     * with a negative limit: every segment between two matches is produced, empty ones included;
+     * segments are views of the input
+     */
+    public <R> Stream<List<R>> splitAsStream(List<R> input, BiPredicate<T, R> compare) {
+        return StreamSupport.stream(new TokenSpliterator<>(matcher(input, compare).spansOnly(), input, true), false)
+                .filter(token -> !token.isMatch())
+                .map(Token::getElements);
+    }
+
+    /**
+     * lazily cut the input into the matches of this pattern and the non-empty gaps between them
+     */
+    public <R> Stream<Token<R>> tokenize(List<R> input, BiPredicate<T, R> compare) {
+        return StreamSupport.stream(new TokenSpliterator<>(matcher(input, compare).spansOnly(), input, false), false);
+    }
+
+    /**
+     * replace every match of this pattern by the elements returned for it; like
+     * {@link java.util.regex.Matcher#replaceAll}, an empty match inserts its replacement
+     * before the element it stands in front of
+     * @param replacement elements replacing a match, the groups of the match are views
+     *                    of the input
+     * @return a new list
+     */
+    public <R> List<R> replaceAll(List<R> input, BiPredicate<T, R> compare,
+                                  Function<Matcher.MatchedResult<R>, List<R>> replacement) {
+        List<R> result = new ArrayList<>(input.size());
+        Matcher<T, R> matcher = matcher(input, compare);
+        int cursor = 0;
+        while (matcher.find()) {
+            result.addAll(input.subList(cursor, matcher.start(0)));
+            result.addAll(replacement.apply(matcher.getResult()));
+            cursor = matcher.end(0);
+        }
+        result.addAll(input.subList(cursor, input.size()));
+        return result;
+    }
+
+    /**
+     * replace the matches of this pattern in a stream pushed element by element, with the
+     * same result as {@link #replaceAll}, see {@link StreamReplacer}
+     */
+    public <R> StreamReplacer<T, R> replacer(BiPredicate<T, R> compare,
+                                             Function<Matcher.MatchedResult<R>, List<R>> replacement,
+                                             Consumer<? super R> downstream) {
+        return new StreamReplacer<>(this, compare, replacement, downstream);
+    }
+
+    /**
+     * bind a matcher to a list growing at its end, see {@link IncrementalMatcher}
+     */
+    public <R> IncrementalMatcher<T, R> incrementalMatcher(List<R> input, BiPredicate<T, R> compare) {
+        return new IncrementalMatcher<>(this, input, compare);
+    }
+
+    /**
+     * match this pattern against many interleaved streams, one per key, see {@link PartitionedMatcher}
+     * @param concurrency expected number of threads feeding the matcher
+     */
+    public <K, R> PartitionedMatcher<T, K, R> partitionedMatcher(BiPredicate<T, R> compare, int concurrency) {
+        return new PartitionedMatcher<>(this, compare, concurrency);
+    }
+
+    /**
+     * match this pattern against the root-to-leaf paths of trees, see {@link TreePathMatcher}
+     */
+    public <R> TreePathMatcher<T, R> treeMatcher(BiPredicate<T, R> compare) {
+        return new TreePathMatcher<>(this, compare);
+    }
+
+    /**
+     * return the matcher cached for the current thread, reset to the given input;
+     * the matcher is handed out again by the next call on the same thread
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Matcher<T, R> pooledMatcher(List<R> input, BiPredicate<T, R> compare) {
+        Matcher<T, R> matcher = (Matcher<T, R>) matcherPool.get();
+        if (matcher == null) {
+            matcher = new Matcher<>(this, input, compare);
+            matcherPool.set(matcher);
+            return matcher;
+        }
+        matcher.setListener(listener);
+        return matcher.reset(input, compare);
+    }
+
 
 }
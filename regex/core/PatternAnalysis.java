@@ -0,0 +1,304 @@
+package regex.core;
+
+import regex.core.PostExpression.Node;
+
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * Compile time analysis of a pattern and the engines chosen from it, see {@link Pattern#explain()}.
+ *
+ * Literals are opaque predicates, so two literals can't be proved disjoint and the analysis
+ * only looks at the structure: an unbounded quantifier over an operand which itself holds an
+ * unbounded quantifier or matches the empty sequence may backtrack exponentially, unbounded
+ * quantifiers in sequence polynomially. For the same reason there is no DFA engine: its states
+ * would be sets of positions over every combination of literal outcomes, which is
+ * exponential in the number of literals before any input is read.
+ */
+public class PatternAnalysis {
+    public enum Strategy {
+        /** recursive or compiled backtracking over the NFA */
+        BACKTRACKING,
+        /** compiled backtracking which never visits a (state, position) pair twice */
+        MEMOIZED_BACKTRACKING,
+        /** simulation of the position automaton, one set of positions per element */
+        NFA_SIMULATION,
+        /** position automaton with at most 64 positions held in one long */
+        BIT_PARALLEL
+    }
+
+    public enum Risk {
+        LINEAR, POLYNOMIAL, EXPONENTIAL
+    }
+
+    private static final int UNBOUNDED = -1;
+
+    private final int positions;
+    private final int states;
+    private final int captureGroups;
+    private final boolean requiredStart;
+    private final boolean requiredEnd;
+    private final boolean nullable;
+    private final int minLength;
+    private final int maxLength;
+    private final boolean nestedQuantifiers;
+    private final boolean atomicGroups;
+    private final int quantifierDegree;
+    private final Risk risk;
+    private final Strategy matchStrategy;
+    private final Strategy testStrategy;
+
+    private static class Fragment {
+        int min;
+        int max;
+        boolean nullable;
+        /** whether the fragment holds an unbounded quantifier */
+        boolean unbounded;
+        /** largest number of unbounded quantifiers one after the other */
+        int degree;
+
+        Fragment(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    private PatternAnalysis(int positions, int states, int captureGroups, boolean requiredStart, boolean requiredEnd,
+                            Fragment whole, boolean nested, boolean atomic, boolean hasAutomaton) {
+        this.positions = positions;
+        this.states = states;
+        this.captureGroups = captureGroups;
+        this.requiredStart = requiredStart;
+        this.requiredEnd = requiredEnd;
+        this.nullable = whole != null && whole.nullable;
+        this.minLength = whole == null ? 0 : whole.min;
+        this.maxLength = whole == null ? UNBOUNDED : whole.max;
+        this.nestedQuantifiers = nested;
+        this.atomicGroups = atomic;
+        this.quantifierDegree = whole == null ? 0 : whole.degree;
+        if (whole == null || nested)
+            this.risk = Risk.EXPONENTIAL;
+        else
+            this.risk = quantifierDegree > 1 ? Risk.POLYNOMIAL : Risk.LINEAR;
+        boolean memoizable = risk == Risk.EXPONENTIAL && !atomic;
+        this.matchStrategy = memoizable && captureGroups == 0
+                ? Strategy.MEMOIZED_BACKTRACKING : Strategy.BACKTRACKING;
+        if (hasAutomaton)
+            this.testStrategy = positions <= ShiftAndEngine.MAX_POSITIONS ? Strategy.BIT_PARALLEL : Strategy.NFA_SIMULATION;
+        else
+            this.testStrategy = memoizable ? Strategy.MEMOIZED_BACKTRACKING : Strategy.BACKTRACKING;
+    }
+
+    /**
+     * @param sequence post expression of the pattern, or null if it is not known
+     */
+    static PatternAnalysis analyze(List<Node> sequence, NFA<?> nfa, boolean requiredStart, boolean requiredEnd,
+                                   boolean hasAutomaton) {
+        List<? extends NFA<?>.State> automaton = nfa.getStates();
+        int states = automaton.size();
+        boolean atomic = automaton.stream().anyMatch(state -> state.node.type == RegexElement.ATOMIC);
+        Stack<Fragment> stack = new Stack<>();
+        int positions = 0;
+        boolean nested = false;
+        boolean malformed = sequence == null;
+        Fragment f1, f2;
+        for (int i = 0; !malformed && i < sequence.size(); ++i) {
+            Node node = sequence.get(i);
+            switch (node.type) {
+                case LITERAL:
+                case WILDCARD:
+                    positions++;
+                    stack.push(new Fragment(1, 1));
+                    break;
+                case CONCAT:
+                    if (stack.size() < 2) {
+                        malformed = true;
+                        break;
+                    }
+                    f1 = stack.pop();
+                    f2 = stack.peek();
+                    f2.min += f1.min;
+                    f2.max = f2.max == UNBOUNDED || f1.max == UNBOUNDED ? UNBOUNDED : f2.max + f1.max;
+                    f2.nullable &= f1.nullable;
+                    f2.unbounded |= f1.unbounded;
+                    f2.degree += f1.degree;
+                    break;
+                case BRANCH:
+                    if (stack.size() < 2) {
+                        malformed = true;
+                        break;
+                    }
+                    f1 = stack.pop();
+                    f2 = stack.peek();
+                    f2.min = Math.min(f2.min, f1.min);
+                    f2.max = f2.max == UNBOUNDED || f1.max == UNBOUNDED ? UNBOUNDED : Math.max(f2.max, f1.max);
+                    f2.nullable |= f1.nullable;
+                    f2.unbounded |= f1.unbounded;
+                    f2.degree = Math.max(f2.degree, f1.degree);
+                    break;
+                case KLEENE:
+                case NGKLEENE:
+                case REPEAT:
+                case NGREPEAT:
+                    if (stack.empty()) {
+                        malformed = true;
+                        break;
+                    }
+                    f1 = stack.peek();
+                    nested |= f1.unbounded || f1.nullable;
+                    if (node.type == RegexElement.KLEENE || node.type == RegexElement.NGKLEENE) {
+                        f1.min = 0;
+                        f1.nullable = true;
+                    }
+                    if (f1.max != 0)
+                        f1.max = UNBOUNDED;
+                    f1.unbounded = true;
+                    f1.degree = Math.max(1, f1.degree);
+                    break;
+                case ALTERN:
+                    if (stack.empty()) {
+                        malformed = true;
+                        break;
+                    }
+                    stack.peek().min = 0;
+                    stack.peek().nullable = true;
+                    break;
+                case ATOMIC:
+                    if (stack.empty()) {
+                        malformed = true;
+                        break;
+                    }
+                    /** no backtracking into the operand from what follows */
+                    stack.peek().degree = 0;
+                    break;
+                case CAPTURESTART:
+                case LPAREN:
+                case RPAREN:
+                case ESCAPE:
+                    break;
+                default:
+                    malformed = true;
+                    break;
+            }
+        }
+        Fragment whole = !malformed && stack.size() == 1 ? stack.pop() : null;
+        return new PatternAnalysis(whole == null ? UNBOUNDED : positions, states, nfa.getGroupCount(),
+                requiredStart, requiredEnd, whole, nested, atomic, hasAutomaton);
+    }
+
+    /**
+     * @return number of literals and wildcards, or -1 if the pattern could not be analysed
+     */
+    public int getPositions() {
+        return positions;
+    }
+
+    public int getStates() {
+        return states;
+    }
+
+    public int getCaptureGroups() {
+        return captureGroups;
+    }
+
+    public boolean isRequiredStart() {
+        return requiredStart;
+    }
+
+    public boolean isRequiredEnd() {
+        return requiredEnd;
+    }
+
+    public boolean isNullable() {
+        return nullable;
+    }
+
+    public int getMinLength() {
+        return minLength;
+    }
+
+    /**
+     * @return maximum number of elements in a match, or -1 if it is unbounded
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public boolean hasNestedQuantifiers() {
+        return nestedQuantifiers;
+    }
+
+    /**
+     * @return whether the pattern has atomic groups or possessive quantifiers, which the
+     * position automaton can't represent and which rule out the memo of visited states
+     */
+    public boolean hasAtomicGroups() {
+        return atomicGroups;
+    }
+
+    public Risk getRisk() {
+        return risk;
+    }
+
+    /**
+     * @return engine of {@link Matcher}, which reports groups; a memo of the visited states
+     * leaves the match unchanged but not the groups, as the groups of this implementation
+     * keep the bounds captured on failed paths, so only patterns without captures are memoized
+     */
+    public Strategy getMatchStrategy() {
+        return matchStrategy;
+    }
+
+    /**
+     * @return engine of {@link Pattern#test} and of the other searches which need the bounds
+     * of the matches only
+     */
+    public Strategy getTestStrategy() {
+        return testStrategy;
+    }
+
+    /**
+     * @return expected cost of a strategy over n elements
+     */
+    private String cost(Strategy strategy) {
+        switch (strategy) {
+            case BIT_PARALLEL:
+                return "O(n), one word of positions per element";
+            case NFA_SIMULATION:
+                return "O(n * " + positions + ") position updates";
+            case MEMOIZED_BACKTRACKING:
+                return "O(n * " + states + ") state visits and bits of memory";
+            default:
+                switch (risk) {
+                    case LINEAR:
+                        return "O(n * " + states + ") state visits";
+                    case POLYNOMIAL:
+                        return "up to O(n^" + (quantifierDegree + 1) + ") state visits";
+                    default:
+                        return "exponential in n in the worst case, consider MatchLimits";
+                }
+        }
+    }
+
+    public String explain() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("positions: ").append(positions < 0 ? "unknown" : String.valueOf(positions))
+                .append(", states: ").append(states)
+                .append(", capture groups: ").append(captureGroups).append('\n');
+        builder.append("anchored: ").append(requiredStart ? "start" : "-")
+                .append(requiredEnd ? " end" : "").append(", nullable: ").append(nullable).append('\n');
+        builder.append("match length: ").append(minLength).append("..")
+                .append(maxLength == UNBOUNDED ? "unbounded" : String.valueOf(maxLength)).append('\n');
+        builder.append("backtracking risk: ").append(risk)
+                .append(nestedQuantifiers ? " (nested or empty-matching quantified operand)" : "")
+                .append(atomicGroups ? ", atomic groups" : "").append('\n');
+        builder.append("match: ").append(matchStrategy).append(", ").append(cost(matchStrategy)).append('\n');
+        builder.append("test: ").append(testStrategy).append(", ").append(cost(testStrategy));
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "PatternAnalysis{match=" + matchStrategy + ", test=" + testStrategy + ", risk=" + risk + '}';
+    }
+}
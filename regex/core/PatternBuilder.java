@@ -0,0 +1,317 @@
+package regex.core;
+
+import regex.core.PostExpression.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Pattern assembled from literal objects instead of a regex string, so nothing is escaped,
+ * rendered or parsed: {@link #compile()} emits the post expression directly and only builds
+ * the automata. Builders are immutable and can be shared between patterns.
+ *
+ * <pre>
+ * Pattern&lt;Rule&gt; p = seq(literal(a), any().star().lazy(), alt(literal(b), literal(c)).group())
+ *         .anchorStart().compile();
+ * </pre>
+ *
+ * Groups are numbered in the order they open, as the parentheses of a regex string;
+ * {@link #seq} and {@link #alt} group without capturing, which keeps the memo of visited
+ * states available to patterns with nested quantifiers, see {@link PatternAnalysis}.
+ */
+public final class PatternBuilder<T> {
+    private enum Kind {
+        LITERAL, ANY, SEQ, ALT, STAR, PLUS, OPTIONAL, GROUP, ATOMIC
+    }
+
+    /** precedence of the parts in a regex string, from the loosest binding */
+    private static final int ALTERNATION = 0;
+    private static final int SEQUENCE = 1;
+    private static final int QUANTIFIED = 2;
+    private static final int ATOM = 3;
+
+    private final Kind kind;
+    private final T literal;
+    private final List<PatternBuilder<T>> parts;
+    private final boolean lazy;
+    private final boolean requiredStart;
+    private final boolean requiredEnd;
+
+    private PatternBuilder(Kind kind, T literal, List<PatternBuilder<T>> parts, boolean lazy,
+                           boolean requiredStart, boolean requiredEnd) {
+        this.kind = kind;
+        this.literal = literal;
+        this.parts = parts;
+        this.lazy = lazy;
+        this.requiredStart = requiredStart;
+        this.requiredEnd = requiredEnd;
+    }
+
+    private static <T> PatternBuilder<T> of(Kind kind, List<PatternBuilder<T>> parts) {
+        for (PatternBuilder<T> part : parts) {
+            Objects.requireNonNull(part, "part");
+            if (part.requiredStart || part.requiredEnd)
+                throw new IllegalArgumentException("anchors only apply to the whole pattern");
+        }
+        return new PatternBuilder<>(kind, null, parts, false, false, false);
+    }
+
+    private PatternBuilder<T> wrap(Kind kind) {
+        return of(kind, Collections.singletonList(this));
+    }
+
+    /**
+     * @return a position accepting the elements the literal accepts
+     */
+    public static <T> PatternBuilder<T> literal(T literal) {
+        return new PatternBuilder<>(Kind.LITERAL, Objects.requireNonNull(literal, "literal"),
+                Collections.emptyList(), false, false, false);
+    }
+
+    /**
+     * @return a position accepting any element, the wildcard "."
+     */
+    public static <T> PatternBuilder<T> any() {
+        return new PatternBuilder<>(Kind.ANY, null, Collections.emptyList(), false, false, false);
+    }
+
+    @SafeVarargs
+    public static <T> PatternBuilder<T> seq(PatternBuilder<T>... parts) {
+        List<PatternBuilder<T>> list = new ArrayList<>(parts.length);
+        for (PatternBuilder<T> part : parts)
+            list.add(part);
+        return seq(list);
+    }
+
+    public static <T> PatternBuilder<T> seq(List<PatternBuilder<T>> parts) {
+        if (parts.isEmpty())
+            throw new IllegalArgumentException("empty sequence");
+        if (parts.size() == 1)
+            return Objects.requireNonNull(parts.get(0), "part");
+        return of(Kind.SEQ, new ArrayList<>(parts));
+    }
+
+    /**
+     * @return alternation of the parts; as for "a|b|c" in a regex string, the alternatives
+     * are tried from the last one to the first
+     */
+    @SafeVarargs
+    public static <T> PatternBuilder<T> alt(PatternBuilder<T>... parts) {
+        List<PatternBuilder<T>> list = new ArrayList<>(parts.length);
+        for (PatternBuilder<T> part : parts)
+            list.add(part);
+        return alt(list);
+    }
+
+    public static <T> PatternBuilder<T> alt(List<PatternBuilder<T>> parts) {
+        if (parts.isEmpty())
+            throw new IllegalArgumentException("empty alternation");
+        if (parts.size() == 1)
+            return Objects.requireNonNull(parts.get(0), "part");
+        return of(Kind.ALT, new ArrayList<>(parts));
+    }
+
+    public PatternBuilder<T> star() {
+        return wrap(Kind.STAR);
+    }
+
+    public PatternBuilder<T> plus() {
+        return wrap(Kind.PLUS);
+    }
+
+    public PatternBuilder<T> optional() {
+        return wrap(Kind.OPTIONAL);
+    }
+
+    /**
+     * @return this {@link #star()} or {@link #plus()} repeating as few times as possible
+     */
+    public PatternBuilder<T> lazy() {
+        if (kind != Kind.STAR && kind != Kind.PLUS)
+            throw new IllegalStateException("only star and plus have a lazy form");
+        return new PatternBuilder<>(kind, null, parts, true, requiredStart, requiredEnd);
+    }
+
+    /**
+     * @return capturing group of this part
+     */
+    public PatternBuilder<T> group() {
+        return wrap(Kind.GROUP);
+    }
+
+    /**
+     * @return this part without backtracking into it once it matched, "(?>...)"
+     */
+    public PatternBuilder<T> atomic() {
+        return wrap(Kind.ATOMIC);
+    }
+
+    /**
+     * @return this greedy quantifier without giving back what it matched, "*+", "++" or "?+"
+     */
+    public PatternBuilder<T> possessive() {
+        if (kind != Kind.STAR && kind != Kind.PLUS && kind != Kind.OPTIONAL || lazy)
+            throw new IllegalStateException("only greedy quantifiers have a possessive form");
+        return atomic();
+    }
+
+    /**
+     * @return this pattern only matching at the start of the input, "^"
+     */
+    public PatternBuilder<T> anchorStart() {
+        return new PatternBuilder<>(kind, literal, parts, lazy, true, requiredEnd);
+    }
+
+    /**
+     * @return this pattern only matching up to the end of the input, "$"
+     */
+    public PatternBuilder<T> anchorEnd() {
+        return new PatternBuilder<>(kind, literal, parts, lazy, requiredStart, true);
+    }
+
+    public Pattern<T> compile() {
+        return Pattern.build(this::toPostExpression, null, this);
+    }
+
+    /**
+     * @param literalKey key of a literal accepting exactly the elements of the same key,
+     *                   or null if the literal is not an equality test,
+     *                   see {@link Pattern#compile(String, Function, Function)}
+     */
+    public Pattern<T> compile(Function<T, ?> literalKey) {
+        return Pattern.build(this::toPostExpression, Objects.requireNonNull(literalKey, "literalKey"), this);
+    }
+
+    private PostExpression<T> toPostExpression() {
+        List<Node> sequence = new ArrayList<>();
+        int[] groups = new int[1];
+        emit(sequence, groups);
+        return new PostExpression<>(sequence, groups[0], requiredStart, requiredEnd);
+    }
+
+    /**
+     * append the post expression of this part, in the form {@link PostExpression} parses a regex to
+     */
+    private void emit(List<Node> sequence, int[] groups) {
+        switch (kind) {
+            case LITERAL:
+                sequence.add(new PostExpression.LiteralNode<>(literal));
+                break;
+            case ANY:
+                sequence.add(new Node(RegexElement.WILDCARD));
+                break;
+            case SEQ:
+                parts.get(0).emit(sequence, groups);
+                for (int i = 1; i < parts.size(); ++i) {
+                    parts.get(i).emit(sequence, groups);
+                    sequence.add(new Node(RegexElement.CONCAT));
+                }
+                break;
+            case ALT:
+                for (PatternBuilder<T> part : parts)
+                    part.emit(sequence, groups);
+                for (int i = 1; i < parts.size(); ++i)
+                    sequence.add(new Node(RegexElement.BRANCH));
+                break;
+            case STAR:
+                parts.get(0).emit(sequence, groups);
+                sequence.add(new Node(lazy ? RegexElement.NGKLEENE : RegexElement.KLEENE));
+                break;
+            case PLUS:
+                parts.get(0).emit(sequence, groups);
+                sequence.add(new Node(lazy ? RegexElement.NGREPEAT : RegexElement.REPEAT));
+                break;
+            case OPTIONAL:
+                parts.get(0).emit(sequence, groups);
+                sequence.add(new Node(RegexElement.ALTERN));
+                break;
+            case GROUP:
+                int id = ++groups[0];
+                parts.get(0).emit(sequence, groups);
+                sequence.add(new PostExpression.CaptureStartNode(id));
+                break;
+            case ATOMIC:
+                parts.get(0).emit(sequence, groups);
+                sequence.add(new Node(RegexElement.ATOMIC));
+                break;
+        }
+    }
+
+    /**
+     * @return this pattern as a regex string, which {@link Pattern#compile(String, Function)}
+     * accepts when the literals print as their source text; sequences and alternations get
+     * parentheses only where the regex needs them, but those capture, so the groups of the
+     * string are numbered differently when there are any
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        if (requiredStart)
+            builder.append('^');
+        render(builder, ALTERNATION);
+        if (requiredEnd)
+            builder.append('$');
+        return builder.toString();
+    }
+
+    private int precedence() {
+        switch (kind) {
+            case ALT:
+                return ALTERNATION;
+            case SEQ:
+                return SEQUENCE;
+            case STAR:
+            case PLUS:
+            case OPTIONAL:
+                return QUANTIFIED;
+            default:
+                return ATOM;
+        }
+    }
+
+    /**
+     * @param context precedence the enclosing part requires, looser parts are parenthesized
+     */
+    private void render(StringBuilder builder, int context) {
+        boolean parenthesized = precedence() < context;
+        if (parenthesized)
+            builder.append('(');
+        switch (kind) {
+            case LITERAL:
+                builder.append(literal);
+                break;
+            case ANY:
+                builder.append('.');
+                break;
+            case SEQ:
+            case ALT:
+                for (int i = 0; i < parts.size(); ++i) {
+                    if (i > 0)
+                        builder.append(kind == Kind.SEQ ? " " : "|");
+                    parts.get(i).render(builder, SEQUENCE);
+                }
+                break;
+            case GROUP:
+                builder.append('(');
+                parts.get(0).render(builder, ALTERNATION);
+                builder.append(')');
+                break;
+            case ATOMIC:
+                builder.append("(?>");
+                parts.get(0).render(builder, ALTERNATION);
+                builder.append(')');
+                break;
+            default:
+                parts.get(0).render(builder, ATOM);
+                builder.append(kind == Kind.STAR ? "*" : kind == Kind.PLUS ? "+" : "?");
+                if (lazy)
+                    builder.append('?');
+                break;
+        }
+        if (parenthesized)
+            builder.append(')');
+    }
+}
@@ -0,0 +1,282 @@
+package regex.core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Versioned binary form of compiled patterns. Loading a pattern skips regex parsing, the
+ * automata and the analysis are built again from the post expression, so a loaded pattern
+ * runs on the same engines as the written one; literals are rebuilt either from their
+ * source text by the element constructor or by a user {@link Codec}. The key index of a
+ * pattern compiled with a literal key is rebuilt by passing the same key to read.
+ *
+ * layout: magic, version, flags, group count, element count, elements of the post
+ * expression (opcode, literal index or capture id), literals
+ */
+public class PatternSerializer {
+    private static final int MAGIC = 0x53524758;
+    private static final int PACK_MAGIC = 0x53524750;
+    private static final short VERSION = 1;
+
+    private static final int REQUIRED_START = 1;
+    private static final int REQUIRED_END = 2;
+    private static final int LITERAL_CODEC = 4;
+    private static final int LITERAL_KEY = 8;
+
+    /** opcodes of the post expression elements, new elements must only be appended */
+    private static final RegexElement[] OPCODES = {
+            RegexElement.LITERAL, RegexElement.WILDCARD,
+            RegexElement.CONCAT, RegexElement.BRANCH, RegexElement.ALTERN,
+            RegexElement.KLEENE, RegexElement.REPEAT,
+            RegexElement.NGKLEENE, RegexElement.NGREPEAT,
+            RegexElement.CAPTURESTART, RegexElement.ATOMIC
+    };
+
+    private PatternSerializer() {
+    }
+
+    /**
+     * write a pattern compiled from a regex string, literals are stored as their source text
+     */
+    public static <T> void write(Pattern<T> pattern, DataOutput out) throws IOException {
+        write(pattern, out, null);
+    }
+
+    public static <T> void write(Pattern<T> pattern, DataOutput out, Codec<T> codec) throws IOException {
+        List<PostExpression.Node> sequence = pattern.getSequence();
+        List<PostExpression.LiteralNode<T>> literals = new ArrayList<>();
+        int flags = (pattern.isRequiredStart() ? REQUIRED_START : 0)
+                | (pattern.isRequiredEnd() ? REQUIRED_END : 0)
+                | (codec != null ? LITERAL_CODEC : 0)
+                | (pattern.getLiteralKey() != null ? LITERAL_KEY : 0);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeByte(flags);
+        out.writeInt(pattern.getNfa().getGroupCount());
+        out.writeInt(sequence.size());
+        for (PostExpression.Node node : sequence) {
+            out.writeByte(opcode(node.type));
+            switch (node.type) {
+                case LITERAL:
+                    out.writeInt(literals.size());
+                    @SuppressWarnings("unchecked")
+                    PostExpression.LiteralNode<T> literal = (PostExpression.LiteralNode<T>) node;
+                    literals.add(literal);
+                    break;
+                case CAPTURESTART:
+                    out.writeInt(((PostExpression.CaptureStartNode) node).id);
+                    break;
+                default:
+                    break;
+            }
+        }
+        out.writeInt(literals.size());
+        for (PostExpression.LiteralNode<T> literal : literals) {
+            if (codec != null) {
+                codec.write(literal.content, out);
+            } else if (literal.source != null) {
+                out.writeUTF(literal.source);
+            } else {
+                throw new IllegalArgumentException("literal " + literal + " has no source text, a codec is required");
+            }
+        }
+    }
+
+    public static <T> Pattern<T> read(DataInput in, Function<String, T> constructor) throws IOException {
+        return read(in, constructor, null, null);
+    }
+
+    public static <T> Pattern<T> read(DataInput in, Codec<T> codec) throws IOException {
+        return read(in, null, codec, null);
+    }
+
+    /**
+     * read a pattern compiled with a literal key, see {@link Pattern#compile(String, Function, Function)}
+     */
+    public static <T> Pattern<T> read(DataInput in, Function<String, T> constructor, Function<T, ?> literalKey)
+            throws IOException {
+        return read(in, constructor, null, Objects.requireNonNull(literalKey, "literalKey"));
+    }
+
+    public static <T> Pattern<T> read(DataInput in, Codec<T> codec, Function<T, ?> literalKey) throws IOException {
+        return read(in, null, codec, Objects.requireNonNull(literalKey, "literalKey"));
+    }
+
+    private static <T> Pattern<T> read(DataInput in, Function<String, T> constructor, Codec<T> codec,
+                                       Function<T, ?> literalKey) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a serialized pattern");
+        short version = in.readShort();
+        if (version != VERSION)
+            throw new IOException("unsupported pattern version " + version);
+        int flags = in.readByte();
+        if (((flags & LITERAL_CODEC) != 0) != (codec != null))
+            throw new IOException((flags & LITERAL_CODEC) != 0
+                    ? "pattern literals are encoded by a codec"
+                    : "pattern literals are encoded as source text");
+        if ((flags & LITERAL_KEY) != 0 && literalKey == null)
+            throw new IOException("pattern was compiled with a literal key");
+        int groupCount = in.readInt();
+        int size = in.readInt();
+        if (groupCount < 0 || size < 0)
+            throw new IOException("malformed pattern");
+        PostExpression.Node[] nodes = new PostExpression.Node[size];
+        int[] literalIndex = new int[size];
+        /** operands on the stack of the post expression, as the automata pop them */
+        int depth = 0;
+        for (int i = 0; i < size; ++i) {
+            int opcode = in.readUnsignedByte();
+            if (opcode >= OPCODES.length)
+                throw new IOException("unknown opcode " + opcode);
+            RegexElement type = OPCODES[opcode];
+            switch (type) {
+                case LITERAL:
+                    literalIndex[i] = in.readInt();
+                    depth++;
+                    break;
+                case WILDCARD:
+                    nodes[i] = new PostExpression.Node(type);
+                    depth++;
+                    break;
+                case CONCAT:
+                case BRANCH:
+                    nodes[i] = new PostExpression.Node(type);
+                    depth--;
+                    break;
+                case CAPTURESTART:
+                    int id = in.readInt();
+                    if (id < 1 || id > groupCount)
+                        throw new IOException("invalid group " + id);
+                    nodes[i] = new PostExpression.CaptureStartNode(id);
+                    break;
+                default:
+                    nodes[i] = new PostExpression.Node(type);
+                    break;
+            }
+            if (depth < 1)
+                throw new IOException("malformed pattern, no operand for " + type);
+        }
+        if (depth != 1)
+            throw new IOException("malformed pattern");
+        List<PostExpression.LiteralNode<T>> literals = new ArrayList<>();
+        int literalCount = in.readInt();
+        for (int i = 0; i < literalCount; ++i) {
+            if (codec != null) {
+                literals.add(new PostExpression.LiteralNode<>(codec.read(in)));
+            } else {
+                String source = in.readUTF();
+                literals.add(new PostExpression.LiteralNode<>(constructor.apply(source), source));
+            }
+        }
+        for (int i = 0; i < size; ++i) {
+            if (nodes[i] != null)
+                continue;
+            if (literalIndex[i] < 0 || literalIndex[i] >= literalCount)
+                throw new IOException("invalid literal " + literalIndex[i]);
+            nodes[i] = literals.get(literalIndex[i]);
+        }
+        List<PostExpression.Node> sequence = new ArrayList<>(Arrays.asList(nodes));
+        boolean requiredStart = (flags & REQUIRED_START) != 0;
+        boolean requiredEnd = (flags & REQUIRED_END) != 0;
+        return Pattern.build(() -> new PostExpression<>(sequence, groupCount, requiredStart, requiredEnd),
+                literalKey, "serialized pattern");
+    }
+
+    /**
+     * write a rule pack, i.e. a list of patterns in one file
+     */
+    public static <T> void writePack(List<Pattern<T>> patterns, Path path, Codec<T> codec) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(patterns.size());
+            for (Pattern<T> pattern : patterns)
+                write(pattern, out, codec);
+        }
+    }
+
+    public static <T> void writePack(List<Pattern<T>> patterns, Path path) throws IOException {
+        writePack(patterns, path, null);
+    }
+
+    /**
+     * load a rule pack by memory-mapping the file
+     */
+    public static <T> List<Pattern<T>> readPack(Path path, Function<String, T> constructor) throws IOException {
+        return readPack(path, constructor, null, null);
+    }
+
+    public static <T> List<Pattern<T>> readPack(Path path, Codec<T> codec) throws IOException {
+        return readPack(path, null, codec, null);
+    }
+
+    /**
+     * load a rule pack of patterns compiled with the same literal key
+     */
+    public static <T> List<Pattern<T>> readPack(Path path, Function<String, T> constructor, Function<T, ?> literalKey)
+            throws IOException {
+        return readPack(path, constructor, null, Objects.requireNonNull(literalKey, "literalKey"));
+    }
+
+    public static <T> List<Pattern<T>> readPack(Path path, Codec<T> codec, Function<T, ?> literalKey) throws IOException {
+        return readPack(path, null, codec, Objects.requireNonNull(literalKey, "literalKey"));
+    }
+
+    private static <T> List<Pattern<T>> readPack(Path path, Function<String, T> constructor, Codec<T> codec,
+                                                 Function<T, ?> literalKey) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+            if (in.readInt() != PACK_MAGIC)
+                throw new IOException("not a pattern pack");
+            short version = in.readShort();
+            if (version != VERSION)
+                throw new IOException("unsupported pattern pack version " + version);
+            int count = in.readInt();
+            List<Pattern<T>> patterns = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                patterns.add(read(in, constructor, codec, literalKey));
+            return patterns;
+        }
+    }
+
+    private static int opcode(RegexElement type) {
+        for (int i = 0; i < OPCODES.length; ++i) {
+            if (OPCODES[i] == type)
+                return i;
+        }
+        throw new IllegalArgumentException("no opcode for " + type);
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining())
+                return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+            return len;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package regex.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe {@link MatchListener} aggregating the statistics of all matches of a pattern.
+ * Steps (visited states), predicate calls and wall time are kept in histograms whose
+ * bucket i counts the matches with a value in [2^(i-1), 2^i).
+ */
+public class PatternStatistics implements MatchListener {
+    private static final int BUCKETS = 64;
+
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    private final LongAdder predicateCalls = new LongAdder();
+    private final LongAdder statesVisited = new LongAdder();
+    private final LongAdder backtracks = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final AtomicLongArray stepHistogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray predicateHistogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray nanoHistogram = new AtomicLongArray(BUCKETS);
+    private volatile int peakDepth;
+
+    @Override
+    public void matchFinished(MatchStatistics statistics) {
+        matches.increment();
+        if (statistics.isMatched())
+            hits.increment();
+        else if (statistics.isAborted())
+            aborts.increment();
+        predicateCalls.add(statistics.getPredicateCalls());
+        statesVisited.add(statistics.getStatesVisited());
+        backtracks.add(statistics.getBacktracks());
+        nanos.add(statistics.getNanos());
+        stepHistogram.incrementAndGet(bucket(statistics.getStatesVisited()));
+        predicateHistogram.incrementAndGet(bucket(statistics.getPredicateCalls()));
+        nanoHistogram.incrementAndGet(bucket(statistics.getNanos()));
+        if (statistics.getPeakDepth() > peakDepth) {
+            synchronized (this) {
+                if (statistics.getPeakDepth() > peakDepth)
+                    peakDepth = statistics.getPeakDepth();
+            }
+        }
+    }
+
+    private static int bucket(long value) {
+        return value <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+
+    private static long[] snapshot(AtomicLongArray histogram) {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i)
+            result[i] = histogram.get(i);
+        return result;
+    }
+
+    public long getMatches() {
+        return matches.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return matches aborted by their limits, neither hits nor misses
+     */
+    public long getAborts() {
+        return aborts.sum();
+    }
+
+    public long getPredicateCalls() {
+        return predicateCalls.sum();
+    }
+
+    public long getStatesVisited() {
+        return statesVisited.sum();
+    }
+
+    public long getBacktracks() {
+        return backtracks.sum();
+    }
+
+    public long getNanos() {
+        return nanos.sum();
+    }
+
+    public int getPeakDepth() {
+        return peakDepth;
+    }
+
+    public long[] getStepHistogram() {
+        return snapshot(stepHistogram);
+    }
+
+    public long[] getPredicateHistogram() {
+        return snapshot(predicateHistogram);
+    }
+
+    public long[] getNanoHistogram() {
+        return snapshot(nanoHistogram);
+    }
+
+    @Override
+    public String toString() {
+        return "PatternStatistics{matches=" + getMatches() + ", hits=" + getHits() + ", aborts=" + getAborts()
+                + ", predicates=" + getPredicateCalls() + ", states=" + getStatesVisited()
+                + ", backtracks=" + getBacktracks() + ", peakDepth=" + getPeakDepth()
+                + ", nanos=" + getNanos() + "}";
+    }
+}
@@ -44,6 +44,17 @@ public class PostExpression<T> {
         this.elementConstructor = elementConstructor;
     }
 
+    /**
+     * post expression assembled without a regex string, see {@link PatternBuilder} and
+     * {@link PatternSerializer}
+     */
+    PostExpression(List<Node> sequence, int captureCount, boolean requiredStart, boolean requiredEnd) {
+        this.requiredStart = requiredStart;
+        this.requiredEnd = requiredEnd;
+        this.sequence = sequence;
+        this.captureCount = captureCount;
+    }
+
     static class Node {
         RegexElement type;
 
@@ -74,10 +85,17 @@ public class PostExpression<T> {
 
     static class LiteralNode<T> extends Node {
         T content;
+        /** text the content was constructed from, null if not built from a regex string */
+        String source;
 
         LiteralNode(T content) {
+            this(content, null);
+        }
+
+        LiteralNode(T content, String source) {
             super(RegexElement.LITERAL);
             this.content = content;
+            this.source = source;
         }
 
         @Override
@@ -86,13 +104,67 @@ public class PostExpression<T> {
         }
     }
 
+    /**
+     * a flattened branch whose alternatives include equality literals indexed by key,
+     * see {@link Pattern#compile(String, Function, Function)}
+     */
+    static class DispatchNode extends Node {
+        /** per key, the alternatives which may accept an element of that key, in branch order */
+        final Map<Object, int[]> candidates;
+        /** alternatives for elements whose key is not indexed, i.e. the non-keyed alternatives */
+        final int[] fallback;
+        /** whether alternative i is a keyed literal, accepting exactly the elements of its key */
+        final boolean[] keyed;
+
+        DispatchNode(Object[] keys) {
+            super(RegexElement.DISPATCH);
+            this.keyed = new boolean[keys.length];
+            Set<Object> distinct = new LinkedHashSet<>();
+            List<Integer> plain = new ArrayList<>();
+            for (int i = 0; i < keys.length; ++i) {
+                keyed[i] = keys[i] != null;
+                if (keyed[i])
+                    distinct.add(keys[i]);
+                else
+                    plain.add(i);
+            }
+            this.fallback = plain.stream().mapToInt(Integer::intValue).toArray();
+            this.candidates = new HashMap<>();
+            for (Object key : distinct) {
+                List<Integer> list = new ArrayList<>();
+                for (int i = 0; i < keys.length; ++i) {
+                    if (keys[i] == null || keys[i].equals(key))
+                        list.add(i);
+                }
+                candidates.put(key, list.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+
+        int[] candidates(Object key) {
+            int[] result = key == null ? null : candidates.get(key);
+            return result == null ? fallback : result;
+        }
+
+        @Override
+        public String toString() {
+            return "Dispatch#" + candidates.size();
+        }
+    }
+
     static class LParenNode extends Node {
         int id;
+        /** whether the group is an atomic group "(?>", which does not capture */
+        boolean atomic;
 
         LParenNode(int id) {
             super(RegexElement.LPAREN);
             this.id = id;
         }
+
+        LParenNode(boolean atomic) {
+            this(0);
+            this.atomic = atomic;
+        }
     }
 
     static class CaptureStartNode extends Node {
@@ -139,6 +211,10 @@ public class PostExpression<T> {
         return regex.substring(start, end);
     }
 
+    private LiteralNode<T> literal(String source) {
+        return new LiteralNode<>(elementConstructor.apply(source), source);
+    }
+
     private List<Node> segment(String regex) {
         List<Node> result = new LinkedList<>();
         char[] array = regex.toCharArray();
@@ -149,13 +225,25 @@ public class PostExpression<T> {
             char ch = array[i];
             switch (ch) {
                 case '?':
+                    if (buff.length() != 0) {
+                        result.add(literal(buff.toString()));
+                        buff.delete(0, buff.length());
+                    }
+                    result.add(new Node(RegexElement.ALTERN));
+                    i++;
+                    if (i < len && array[i] == '+') {
+                        /** possessive option */
+                        result.add(new Node(RegexElement.ATOMIC));
+                        i++;
+                    }
+                    break;
                 case ')':
                 case '[':
                 case ']':
                 case '|':
                 case '.':
                     if (buff.length() != 0) {
-                        result.add(new LiteralNode<>(elementConstructor.apply(buff.toString())));
+                        result.add(literal(buff.toString()));
                         buff.delete(0, buff.length());
                     }
                     result.add(new Node(String.valueOf(ch)));
@@ -163,16 +251,22 @@ public class PostExpression<T> {
                     break;
                 case '(':
                     if (buff.length() != 0) {
-                        result.add(new LiteralNode<>(elementConstructor.apply(buff.toString())));
+                        result.add(literal(buff.toString()));
                         buff.delete(0, buff.length());
                     }
+                    if (i + 2 < len && array[i + 1] == '?' && array[i + 2] == '>') {
+                        /** atomic group */
+                        result.add(new LParenNode(true));
+                        i += 3;
+                        break;
+                    }
                     captureCount++;
                     result.add(new LParenNode(captureCount));
                     i++;
                     break;
                 case ' ':
                     if (buff.length() != 0) {
-                        result.add(new LiteralNode<>(elementConstructor.apply(buff.toString())));
+                        result.add(literal(buff.toString()));
                         buff.delete(0, buff.length());
                     }
                     i++;
@@ -180,11 +274,16 @@ public class PostExpression<T> {
                 case '+':
                 case '*':
                     if (buff.length() != 0) {
-                        result.add(new LiteralNode<>(elementConstructor.apply(buff.toString())));
+                        result.add(literal(buff.toString()));
                         buff.delete(0, buff.length());
                     }
-                    if (i + 1 < len && array[i + 1] != '?') {
-                        /** greedy repeat */
+                    if (i + 1 < len && array[i + 1] == '+') {
+                        /** possessive repeat, i.e. an atomic greedy repeat */
+                        result.add(new Node(String.valueOf(ch)));
+                        result.add(new Node(RegexElement.ATOMIC));
+                        i += 2;
+                    } else if (i + 1 == len || array[i + 1] != '?') {
+                        /** greedy repeat, also at the end of the regex */
                         result.add(new Node(String.valueOf(ch)));
                         i++;
                     } else {
@@ -209,7 +308,7 @@ public class PostExpression<T> {
             }
         }
         if (buff.length() != 0) {
-            result.add(new LiteralNode<>(elementConstructor.apply(buff.toString())));
+            result.add(literal(buff.toString()));
             buff.delete(0, buff.length());
         }
         return result;
@@ -279,6 +378,7 @@ public class PostExpression<T> {
                 case ALTERN:
                 case NGKLEENE:
                 case NGREPEAT:
+                case ATOMIC:
                     if (atomCount == 0) {
                         System.err.println("Error : no operand for " + node.type.toString());
                         return;
@@ -320,8 +420,12 @@ public class PostExpression<T> {
                     branCount = pair.getSecond();
                     Node paren = lparenStack.pop();
                     if (node.type.equals(RegexElement.RPAREN)
-                            && paren instanceof LParenNode)
-                        sequence.add(new CaptureStartNode(((LParenNode) paren).id));
+                            && paren instanceof LParenNode) {
+                        if (((LParenNode) paren).atomic)
+                            sequence.add(new Node(RegexElement.ATOMIC));
+                        else
+                            sequence.add(new CaptureStartNode(((LParenNode) paren).id));
+                    }
                     break;
                 case BRANCH:
                     if (atomCount == 0) {
@@ -357,13 +461,9 @@ public class PostExpression<T> {
     static <T> PostExpression<T> compile(String regex, Function<String, T> constructor) {
         PostExpression<T> exp = new PostExpression<>(constructor);
         String temp = exp.preprocess(regex);
-        System.err.println(temp);
         List<Node> list = exp.segment(temp);
-        System.err.println(list.toString());
         list = exp.resolveBracket(list);
-        System.err.println(list.toString());
         exp.parse(list);
-        System.err.println(exp.sequence);
         return exp;
     }
 
@@ -0,0 +1,74 @@
+package regex.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Horspool search for the run of keyed literals every match of a pattern starts with.
+ * The keys of the input elements are compared from the end of the run, and on a mismatch
+ * the run is shifted by the distance from the last key of the element under its end to
+ * the end of the run, so most elements of a long input are never looked at.
+ */
+class PrefixScan {
+    private final Object[] keys;
+    /** shift for the keys in the run but its last element, other keys shift by the whole length */
+    private final Map<Object, Integer> shifts;
+
+    private PrefixScan(Object[] keys) {
+        this.keys = keys;
+        this.shifts = new HashMap<>();
+        for (int i = 0; i < keys.length - 1; ++i)
+            shifts.put(keys[i], keys.length - 1 - i);
+    }
+
+    /**
+     * @return the scan of the keyed literals the start state of the automaton is
+     * followed by on every path, or null if it does not start with one
+     */
+    static <T> PrefixScan of(NFA<T> nfa, Function<T, ?> literalKey) {
+        List<Object> keys = new ArrayList<>();
+        NFA<T>.State state = nfa.getStart();
+        while (state.outList.size() == 1) {
+            if (state.node.type == RegexElement.LITERAL) {
+                @SuppressWarnings("unchecked")
+                PostExpression.LiteralNode<T> literal = (PostExpression.LiteralNode<T>) state.node;
+                Object key = literalKey.apply(literal.content);
+                if (key == null)
+                    break;
+                keys.add(key);
+            } else if (state.node.type != RegexElement.CAPTURESTART && state.node.type != RegexElement.CAPTUREEND) {
+                break;
+            }
+            state = state.outList.get(0);
+        }
+        return keys.isEmpty() ? null : new PrefixScan(keys.toArray());
+    }
+
+    int length() {
+        return keys.length;
+    }
+
+    /**
+     * @return first offset at or after from where the keys of the input elements are the
+     * keys of the run, or -1
+     */
+    <R> int next(InputCursor<R> input, Function<R, ?> elementKey, int from) {
+        int last = keys.length - 1;
+        for (int i = from; input.has(i + last); ) {
+            Object key = elementKey.apply(input.get(i + last));
+            if (keys[last].equals(key)) {
+                int j = last - 1;
+                while (j >= 0 && keys[j].equals(elementKey.apply(input.get(i + j))))
+                    --j;
+                if (j < 0)
+                    return i;
+            }
+            Integer shift = key == null ? null : shifts.get(key);
+            i += shift == null ? keys.length : shift;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,187 @@
+package regex.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flat form of an {@link NFA}: states are numbered, the epsilon states collapse into
+ * one SPLIT opcode and the out lists become int arrays. {@link Matcher} runs it with
+ * an explicit backtrack stack instead of recursing through the state objects.
+ * The states of the automaton keep their numbers; a LOOP state is appended in front of
+ * the body of each loop which can match the empty sequence, see {@link NFA#getLoopCount()}.
+ */
+class Program<T> {
+    static final int LITERAL = 0;
+    static final int WILDCARD = 1;
+    static final int SPLIT = 2;
+    static final int CAPTURESTART = 3;
+    static final int CAPTUREEND = 4;
+    static final int MATCHED = 5;
+    /** entry of the body of a loop, refused at the position the loop last entered it at */
+    static final int LOOP = 6;
+    static final int DISPATCH = 7;
+    /** outs are the body and the matching ATOMICEND state */
+    static final int ATOMIC = 8;
+    static final int ATOMICEND = 9;
+
+    final int[] opcodes;
+    /** literal content for LITERAL states, null otherwise */
+    final T[] literals;
+    /** capture id for CAPTURESTART and CAPTUREEND states */
+    final int[] captures;
+    /** loop index for LOOP states */
+    final int[] loops;
+    final int[][] outs;
+    /** key tables of DISPATCH states */
+    final PostExpression.DispatchNode[] dispatches;
+    /**
+     * whether the state is on a cycle reading no element; what follows such a state depends
+     * on the loop entries of the path, so the memo of visited states skips it
+     */
+    final boolean[] cycles;
+
+    @SuppressWarnings("unchecked")
+    private Program(int size) {
+        this.opcodes = new int[size];
+        this.literals = (T[]) new Object[size];
+        this.captures = new int[size];
+        this.loops = new int[size];
+        this.outs = new int[size][];
+        this.dispatches = new PostExpression.DispatchNode[size];
+        this.cycles = new boolean[size];
+    }
+
+    private Program(Program<T> program, int[][] outs) {
+        this.opcodes = program.opcodes;
+        this.literals = program.literals;
+        this.captures = program.captures;
+        this.loops = program.loops;
+        this.outs = outs;
+        this.dispatches = program.dispatches;
+        this.cycles = program.cycles;
+    }
+
+    /**
+     * @return copy of this program with other out lists, sharing the rest
+     */
+    Program<T> withOuts(int[][] outs) {
+        return new Program<>(this, outs);
+    }
+
+    /**
+     * the start state of the automaton is state 0
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Program<T> compile(NFA<T> nfa) {
+        List<NFA<T>.State> states = nfa.getStates();
+        Map<NFA<T>.State, Integer> ids = new IdentityHashMap<>();
+        for (NFA<T>.State state : states)
+            ids.put(state, ids.size());
+        Program<T> program = new Program<>(states.size() + nfa.getLoopCount());
+        for (int i = 0; i < states.size(); ++i) {
+            NFA<T>.State state = states.get(i);
+            switch (state.node.type) {
+                case LITERAL:
+                    program.opcodes[i] = LITERAL;
+                    program.literals[i] = ((PostExpression.LiteralNode<T>) state.node).content;
+                    break;
+                case WILDCARD:
+                    program.opcodes[i] = WILDCARD;
+                    break;
+                case CAPTURESTART:
+                    program.opcodes[i] = CAPTURESTART;
+                    program.captures[i] = ((PostExpression.CaptureStartNode) state.node).id;
+                    break;
+                case CAPTUREEND:
+                    program.opcodes[i] = CAPTUREEND;
+                    program.captures[i] = ((PostExpression.CaptureEndNode) state.node).id;
+                    break;
+                case MATCHED:
+                    program.opcodes[i] = MATCHED;
+                    break;
+                case DISPATCH:
+                    program.opcodes[i] = DISPATCH;
+                    program.dispatches[i] = (PostExpression.DispatchNode) state.node;
+                    break;
+                case ATOMIC:
+                    program.opcodes[i] = ATOMIC;
+                    break;
+                case ATOMICEND:
+                    program.opcodes[i] = ATOMICEND;
+                    break;
+                default:
+                    program.opcodes[i] = SPLIT;
+                    break;
+            }
+            int[] outs = new int[state.outList.size()];
+            int j = 0;
+            for (NFA<T>.State next : state.outList) {
+                if (state.loop >= 0 && next == state.body()) {
+                    int entry = states.size() + state.loop;
+                    program.opcodes[entry] = LOOP;
+                    program.loops[entry] = state.loop;
+                    program.outs[entry] = new int[]{ids.get(next)};
+                    outs[j++] = entry;
+                } else {
+                    outs[j++] = ids.get(next);
+                }
+            }
+            program.outs[i] = outs;
+        }
+        for (int entry = states.size(); entry < program.size(); ++entry)
+            program.markCycle(entry);
+        return program;
+    }
+
+    /**
+     * mark the states on the cycles through a LOOP state which read no element: the states
+     * reachable from it and reaching it without reading one
+     */
+    private void markCycle(int entry) {
+        boolean[] forward = new boolean[size()];
+        List<Integer> reached = new ArrayList<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(entry);
+        while (!stack.isEmpty()) {
+            int state = stack.pop();
+            if (forward[state])
+                continue;
+            forward[state] = true;
+            reached.add(state);
+            if (opcodes[state] != LITERAL && opcodes[state] != WILDCARD) {
+                for (int next : outs[state])
+                    stack.push(next);
+            }
+        }
+        boolean[] backward = new boolean[size()];
+        stack.push(entry);
+        while (!stack.isEmpty()) {
+            int state = stack.pop();
+            if (backward[state])
+                continue;
+            backward[state] = true;
+            cycles[state] = true;
+            for (int previous : reached) {
+                if (!backward[previous] && opcodes[previous] != LITERAL && opcodes[previous] != WILDCARD
+                        && contains(outs[previous], state))
+                    stack.push(previous);
+            }
+        }
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int element : array) {
+            if (element == value)
+                return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return opcodes.length;
+    }
+}
@@ -16,6 +16,8 @@ public enum RegexElement {
     ALTERN("?", Type.ESCAPE),
     KLEENE("*", Type.ESCAPE), REPEAT("+", Type.ESCAPE),
     NGKLEENE("*?", Type.ESCAPE), NGREPEAT("+?", Type.ESCAPE),
+    /** atomic group or possessive repeat, no backtracking into the operand */
+    ATOMIC("(?>", Type.ESCAPE),
     /** positions */
     START("^", Type.POSITION), END("$", Type.POSITION),
     /** others */
@@ -23,7 +25,8 @@ public enum RegexElement {
     /** in automaton */
     CAPTURESTART("CapStart", Type.CAPTURE), CAPTUREEND("CapEnd", Type.CAPTURE),
     WILDCARD(".", Type.ESCAPE), LITERAL("Literal", Type.LITERAL),
-    SPLIT("Split", Type.SPLIT),
+    SPLIT("Split", Type.SPLIT), DISPATCH("Dispatch", Type.SPLIT),
+    ATOMICEND("AtomicEnd", Type.SPLIT),
     MATCHED("Matched", Type.MATCHED);
 
     public final String symbol;
@@ -0,0 +1,49 @@
+package regex.core;
+
+/**
+ * Flight Recorder events of pattern compilation and matching, see {@link CompileEvent} and
+ * {@link MatchEvent}. The event classes are only loaded when the JVM has Flight Recorder, and
+ * while no recording enables them the cost is one check per compile or match.
+ * Events are passed around as plain objects so the callers never link against them.
+ */
+final class RegexEvents {
+    private static final boolean AVAILABLE = isAvailable();
+
+    private RegexEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, RegexEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the started compile event, or null if it is not recorded
+     */
+    static Object beginCompile() {
+        return AVAILABLE ? CompileEvent.started() : null;
+    }
+
+    static void endCompile(Object event, Pattern<?> pattern, Object source) {
+        if (event != null)
+            ((CompileEvent) event).end(pattern, source);
+    }
+
+    /**
+     * @return the started match event, or null if it is not recorded
+     */
+    static Object beginMatch() {
+        return AVAILABLE ? MatchEvent.started() : null;
+    }
+
+    static void endMatch(Object event, Pattern<?> pattern, int inputLength, int start,
+                         long steps, long predicateCalls, boolean matched,
+                         MatchBudgetExceededException.Reason aborted) {
+        if (event != null)
+            ((MatchEvent) event).end(pattern, inputLength, start, steps, predicateCalls, matched, aborted);
+    }
+}
@@ -0,0 +1,130 @@
+package regex.core;
+
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Bit-parallel simulation of a position automaton with at most 64 positions. The set of
+ * active positions is one long; the follow sets of a state are united by looking up
+ * one precomputed table per byte of the state, and only the literals of reachable
+ * positions are tested.
+ */
+class ShiftAndEngine<T> {
+    static final int MAX_POSITIONS = 64;
+
+    private final T[] literals;
+    private final long wildcards;
+    private final long first;
+    private final long last;
+    private final boolean nullable;
+    /** followTable[c][b]: union of the follow sets of the positions in byte c equal to b */
+    private final long[][] followTable;
+
+    private ShiftAndEngine(Glushkov<T> glushkov) {
+        this.literals = glushkov.literals;
+        this.wildcards = glushkov.wildcards[0];
+        this.first = glushkov.first[0];
+        this.last = glushkov.last[0];
+        this.nullable = glushkov.nullable;
+        int chunks = Math.max(1, (glushkov.positionCount + 7) >>> 3);
+        this.followTable = new long[chunks][256];
+        for (int c = 0; c < chunks; ++c) {
+            for (int b = 1; b < 256; ++b) {
+                int low = Integer.numberOfTrailingZeros(b);
+                int p = (c << 3) + low;
+                long follow = p < glushkov.positionCount ? glushkov.follow[p][0] : 0;
+                followTable[c][b] = followTable[c][b & (b - 1)] | follow;
+            }
+        }
+    }
+
+    /**
+     * @return the engine, or null if the automaton has too many positions
+     */
+    static <T> ShiftAndEngine<T> of(Glushkov<T> glushkov) {
+        if (glushkov == null || glushkov.positionCount > MAX_POSITIONS)
+            return null;
+        return new ShiftAndEngine<>(glushkov);
+    }
+
+    long follow(long state) {
+        long result = 0;
+        for (int c = 0; state != 0; ++c, state >>>= 8)
+            result |= followTable[c][(int) (state & 0xff)];
+        return result;
+    }
+
+    /**
+     * @return positions of reach whose literal accepts the element
+     */
+    <R> long accept(long reach, R element, BiPredicate<T, R> compare) {
+        long result = reach & wildcards;
+        for (long rest = reach & ~wildcards; rest != 0; rest &= rest - 1) {
+            int p = Long.numberOfTrailingZeros(rest);
+            if (compare.test(literals[p], element))
+                result |= 1L << p;
+        }
+        return result;
+    }
+
+    /**
+     * same result as {@link Matcher#match()} on the pattern of this engine
+     */
+    <R> boolean test(List<R> input, BiPredicate<T, R> compare, boolean requiredStart, boolean requiredEnd) {
+        if (input.isEmpty())
+            return false;
+        if (nullable && !requiredEnd)
+            return true;
+        long state = 0;
+        boolean starting = true;
+        for (R element : input) {
+            long reach = follow(state) | (starting ? first : 0);
+            starting = !requiredStart;
+            if (reach == 0)
+                return false;
+            state = accept(reach, element, compare);
+            if (!requiredEnd && (state & last) != 0)
+                return true;
+        }
+        return (state & last) != 0;
+    }
+
+    /**
+     * same as {@link #test(List, BiPredicate, boolean, boolean)} with the literals tested
+     * block by block: the bitmap of a literal over the current block is computed the
+     * first time one of its positions is reached in the block
+     */
+    boolean test(int length, BatchPredicate<T> predicate, boolean requiredStart, boolean requiredEnd) {
+        if (length == 0)
+            return false;
+        if (nullable && !requiredEnd)
+            return true;
+        long[] bitmaps = new long[literals.length];
+        long state = 0;
+        boolean starting = true;
+        for (int block = 0; block < length; block += BatchPredicate.BLOCK) {
+            int count = Math.min(BatchPredicate.BLOCK, length - block);
+            long computed = 0;
+            for (int i = 0; i < count; ++i) {
+                long reach = follow(state) | (starting ? first : 0);
+                starting = !requiredStart;
+                if (reach == 0)
+                    return false;
+                state = reach & wildcards;
+                for (long rest = reach & ~wildcards; rest != 0; rest &= rest - 1) {
+                    int p = Long.numberOfTrailingZeros(rest);
+                    long bit = 1L << p;
+                    if ((computed & bit) == 0) {
+                        bitmaps[p] = predicate.test(literals[p], block, count);
+                        computed |= bit;
+                    }
+                    if ((bitmaps[p] >>> i & 1) != 0)
+                        state |= bit;
+                }
+                if (!requiredEnd && (state & last) != 0)
+                    return true;
+            }
+        }
+        return (state & last) != 0;
+    }
+}
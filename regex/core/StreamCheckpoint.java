@@ -0,0 +1,120 @@
+package regex.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary form of the live state of the streaming matchers. A checkpoint holds no pattern,
+ * it is restored into a matcher created from the same pattern; the header records the
+ * kind of matcher, the shape of the automaton and a fingerprint of the pattern to reject
+ * checkpoints of another pattern.
+ *
+ * layout: magic, version, kind, flags, position count, fingerprint, followed by the state of the matcher;
+ * run starts are written as the number of active positions and (position, start) pairs
+ */
+final class StreamCheckpoint {
+    private static final int MAGIC = 0x53524753;
+    private static final short VERSION = 1;
+
+    static final int INCREMENTAL = 1;
+    static final int REPLACER = 2;
+    static final int PARTITIONED = 3;
+
+    private static final int REQUIRED_START = 1;
+    private static final int REQUIRED_END = 2;
+
+    private StreamCheckpoint() {
+    }
+
+    /**
+     * @return hash of the post expression and the anchors of the pattern; literals count by
+     * their source text, those without one, from a builder or a codec, only by their place
+     */
+    static long fingerprint(Pattern<?> pattern) {
+        long hash = 0xcbf29ce484222325L;
+        for (PostExpression.Node node : pattern.getSequence()) {
+            hash = mix(hash, node.type.ordinal());
+            if (node instanceof PostExpression.CaptureStartNode)
+                hash = mix(hash, ((PostExpression.CaptureStartNode) node).id);
+            else if (node instanceof PostExpression.LiteralNode && ((PostExpression.LiteralNode<?>) node).source != null)
+                hash = mix(hash, ((PostExpression.LiteralNode<?>) node).source.hashCode());
+        }
+        return mix(hash, (pattern.isRequiredStart() ? REQUIRED_START : 0) | (pattern.isRequiredEnd() ? REQUIRED_END : 0));
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    static void writeHeader(DataOutput out, int kind, Glushkov<?> automaton, boolean requiredStart,
+                            boolean requiredEnd, long fingerprint) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeByte(kind);
+        out.writeByte((requiredStart ? REQUIRED_START : 0) | (requiredEnd ? REQUIRED_END : 0));
+        out.writeInt(automaton.positionCount);
+        out.writeLong(fingerprint);
+    }
+
+    static void readHeader(DataInput in, int kind, Glushkov<?> automaton, boolean requiredStart,
+                           boolean requiredEnd, long fingerprint) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a stream checkpoint");
+        short version = in.readShort();
+        if (version != VERSION)
+            throw new IOException("unsupported checkpoint version " + version);
+        int actualKind = in.readByte();
+        if (actualKind != kind)
+            throw new IOException("checkpoint of another kind of matcher: " + actualKind);
+        int flags = in.readByte();
+        int positions = in.readInt();
+        long actualFingerprint = in.readLong();
+        if (flags != ((requiredStart ? REQUIRED_START : 0) | (requiredEnd ? REQUIRED_END : 0))
+                || positions != automaton.positionCount || actualFingerprint != fingerprint)
+            throw new IOException("checkpoint of another pattern");
+    }
+
+    static void writeStarts(DataOutput out, int[] starts) throws IOException {
+        int active = 0;
+        for (int start : starts) {
+            if (start >= 0)
+                active++;
+        }
+        out.writeInt(active);
+        for (int p = 0; p < starts.length; ++p) {
+            if (starts[p] >= 0) {
+                out.writeInt(p);
+                out.writeInt(starts[p]);
+            }
+        }
+    }
+
+    static void readStarts(DataInput in, int[] starts) throws IOException {
+        Arrays.fill(starts, -1);
+        int active = in.readInt();
+        for (int i = 0; i < active; ++i) {
+            int p = in.readInt();
+            if (p < 0 || p >= starts.length)
+                throw new IOException("invalid position " + p);
+            starts[p] = in.readInt();
+        }
+    }
+
+    static <R> void writeElements(DataOutput out, List<R> elements, Codec<R> codec) throws IOException {
+        out.writeInt(elements.size());
+        for (R element : elements)
+            codec.write(element, out);
+    }
+
+    static <R> void readElements(DataInput in, List<R> elements, Codec<R> codec) throws IOException {
+        int size = in.readInt();
+        if (size < 0)
+            throw new IOException("invalid element count " + size);
+        elements.clear();
+        for (int i = 0; i < size; ++i)
+            elements.add(codec.read(in));
+    }
+}
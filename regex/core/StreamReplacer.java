@@ -0,0 +1,225 @@
+package regex.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Streaming form of {@link Pattern#replaceAll}: elements are pushed one by one and written
+ * to the downstream consumer as soon as no match can cover them any more. The position
+ * automaton of the pattern tracks the earliest start of the runs still alive; only the
+ * elements from that start on are buffered. Once the leftmost accepted run can no longer
+ * be overtaken by an earlier one, the buffered window is matched by a {@link Matcher} to
+ * get the same match and groups as the non-streaming replacement.
+ */
+public class StreamReplacer<T, R> {
+    private static final int NONE = -1;
+
+    private final Glushkov<T> automaton;
+    private final boolean requiredStart;
+    private final boolean requiredEnd;
+    /** identifies the pattern in checkpoints, see {@link StreamCheckpoint#fingerprint} */
+    private final long fingerprint;
+    private final BiPredicate<T, R> compare;
+    private final Matcher<T, R> matcher;
+    private final Function<Matcher.MatchedResult<R>, List<R>> replacement;
+    private final Consumer<? super R> downstream;
+    /** elements from the absolute index base on, not yet written downstream */
+    private final List<R> buffer;
+    private int base;
+    /** earliest absolute start of a run in each position, -1 for inactive positions */
+    private int[] starts;
+    private int[] nextStarts;
+    /** earliest start of an accepted run, -1 if none */
+    private int acceptStart;
+    /** anchored patterns only match once */
+    private boolean exhausted;
+    private boolean finished;
+
+    StreamReplacer(Pattern<T> pattern, BiPredicate<T, R> compare,
+                   Function<Matcher.MatchedResult<R>, List<R>> replacement, Consumer<? super R> downstream) {
+        this.automaton = pattern.getGlushkov();
+        if (automaton == null)
+            throw new IllegalStateException("pattern has no position automaton");
+        this.requiredStart = pattern.isRequiredStart();
+        this.requiredEnd = pattern.isRequiredEnd();
+        this.fingerprint = StreamCheckpoint.fingerprint(pattern);
+        this.compare = compare;
+        this.buffer = new ArrayList<>();
+        this.matcher = pattern.matcher(buffer, compare);
+        this.replacement = replacement;
+        this.downstream = downstream;
+        this.starts = new int[automaton.positionCount];
+        this.nextStarts = new int[automaton.positionCount];
+        Arrays.fill(starts, NONE);
+        this.acceptStart = NONE;
+    }
+
+    public void push(R element) {
+        if (finished)
+            throw new IllegalStateException("replacer is finished");
+        if (exhausted) {
+            downstream.accept(element);
+            return;
+        }
+        buffer.add(element);
+        step(element, base + buffer.size() - 1);
+        drain();
+    }
+
+    /**
+     * end of the input: resolve the pending matches and flush the buffer
+     */
+    public void finish() {
+        if (finished)
+            return;
+        finished = true;
+        if (!exhausted && !(requiredStart && base > 0)) {
+            matcher.reset(buffer);
+            int cursor = 0;
+            while (matcher.find()) {
+                emit(cursor, matcher.start(0));
+                cursor = matcher.end(0);
+                replacement.apply(matcher.getResult()).forEach(downstream);
+            }
+            emit(cursor, buffer.size());
+        } else {
+            emit(0, buffer.size());
+        }
+        buffer.clear();
+    }
+
+    /**
+     * write the live state and the buffered elements, see {@link StreamCheckpoint}
+     */
+    public void checkpoint(DataOutput out, Codec<R> codec) throws IOException {
+        StreamCheckpoint.writeHeader(out, StreamCheckpoint.REPLACER, automaton, requiredStart, requiredEnd, fingerprint);
+        out.writeInt(base);
+        out.writeInt(acceptStart);
+        out.writeBoolean(exhausted);
+        out.writeBoolean(finished);
+        StreamCheckpoint.writeStarts(out, starts);
+        StreamCheckpoint.writeElements(out, buffer, codec);
+    }
+
+    /**
+     * continue from a checkpoint of a replacer of the same pattern, the elements written
+     * downstream before the checkpoint are not written again
+     */
+    public StreamReplacer<T, R> restore(DataInput in, Codec<R> codec) throws IOException {
+        StreamCheckpoint.readHeader(in, StreamCheckpoint.REPLACER, automaton, requiredStart, requiredEnd, fingerprint);
+        base = in.readInt();
+        acceptStart = in.readInt();
+        exhausted = in.readBoolean();
+        finished = in.readBoolean();
+        StreamCheckpoint.readStarts(in, starts);
+        StreamCheckpoint.readElements(in, buffer, codec);
+        return this;
+    }
+
+    private void step(R element, int index) {
+        int[] next = nextStarts;
+        Arrays.fill(next, NONE);
+        for (int p = 0; p < starts.length; ++p) {
+            int start = starts[p];
+            if (start == NONE)
+                continue;
+            long[] follow = automaton.follow[p];
+            for (int w = 0; w < follow.length; ++w) {
+                for (long bits = follow[w]; bits != 0; bits &= bits - 1) {
+                    int q = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    if (next[q] == NONE || start < next[q])
+                        next[q] = start;
+                }
+            }
+        }
+        if (!requiredStart || index == 0) {
+            if (automaton.nullable && !requiredEnd && acceptStart == NONE)
+                acceptStart = index;
+            for (int w = 0; w < automaton.words; ++w) {
+                for (long bits = automaton.first[w]; bits != 0; bits &= bits - 1) {
+                    int q = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    if (next[q] == NONE)
+                        next[q] = index;
+                }
+            }
+        }
+        for (int q = 0; q < next.length; ++q) {
+            if (next[q] != NONE && (automaton.wildcards[q >>> 6] & (1L << q)) == 0
+                    && !compare.test(automaton.literals[q], element))
+                next[q] = NONE;
+        }
+        nextStarts = starts;
+        starts = next;
+        if (requiredEnd)
+            return;
+        for (int w = 0; w < automaton.words; ++w) {
+            for (long bits = automaton.last[w]; bits != 0; bits &= bits - 1) {
+                int q = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if (starts[q] != NONE && (acceptStart == NONE || starts[q] < acceptStart))
+                    acceptStart = starts[q];
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            int live = Integer.MAX_VALUE;
+            for (int start : starts) {
+                if (start != NONE && start < live)
+                    live = start;
+            }
+            int accepted = acceptStart == NONE ? Integer.MAX_VALUE : acceptStart;
+            int safe = Math.min(Math.min(live, accepted), base + buffer.size());
+            emit(0, safe - base);
+            buffer.subList(0, safe - base).clear();
+            base = safe;
+            if (accepted == Integer.MAX_VALUE || live <= accepted)
+                return;
+            resolve();
+        }
+    }
+
+    /**
+     * no run starting at or before the first buffered element is alive: the match found
+     * by the backtracker on the buffer is final
+     */
+    private void resolve() {
+        matcher.reset(buffer);
+        if (!matcher.find(0)) {
+            throw new IllegalStateException("accepted run not matched by the backtracker");
+        }
+        int end = matcher.end(0);
+        replacement.apply(matcher.getResult()).forEach(downstream);
+        if (end == 0)
+            end = 1;
+        else
+            end = Math.min(end, buffer.size());
+        if (end > matcher.end(0))
+            emit(0, end);
+        buffer.subList(0, end).clear();
+        base += end;
+        Arrays.fill(starts, NONE);
+        acceptStart = NONE;
+        if (requiredStart) {
+            exhausted = true;
+            emit(0, buffer.size());
+            base += buffer.size();
+            buffer.clear();
+            return;
+        }
+        for (int i = 0; i < buffer.size(); ++i)
+            step(buffer.get(i), base + i);
+    }
+
+    private void emit(int from, int to) {
+        for (int i = from; i < to; ++i)
+            downstream.accept(buffer.get(i));
+    }
+}
@@ -0,0 +1,45 @@
+package regex.core;
+
+import java.util.List;
+
+/**
+ * A range of the input produced by {@link Pattern#tokenize}: either a match of the
+ * pattern or a gap between two matches.
+ */
+public class Token<R> {
+    private final List<R> input;
+    private final int start;
+    private final int end;
+    private final boolean match;
+
+    Token(List<R> input, int start, int end, boolean match) {
+        this.input = input;
+        this.start = start;
+        this.end = end;
+        this.match = match;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public boolean isMatch() {
+        return match;
+    }
+
+    /**
+     * @return the elements of the token, as a view of the input
+     */
+    public List<R> getElements() {
+        return input.subList(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return (match ? "Match" : "Gap") + "[" + start + ", " + end + ")";
+    }
+}
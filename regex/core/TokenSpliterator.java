@@ -0,0 +1,56 @@
+package regex.core;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Lazily cuts the input into matches and the gaps between them, running
+ * {@link Matcher#find()} once per match in one forward scan.
+ */
+class TokenSpliterator<T, R> extends Spliterators.AbstractSpliterator<Token<R>> {
+    private final Matcher<T, R> matcher;
+    private final List<R> input;
+    /** whether empty gaps are produced too, as needed by split */
+    private final boolean emptyGaps;
+    /** end of the last produced token */
+    private int cursor;
+    private Token<R> pending;
+    private boolean done;
+
+    TokenSpliterator(Matcher<T, R> matcher, List<R> input, boolean emptyGaps) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.matcher = matcher;
+        this.input = input;
+        this.emptyGaps = emptyGaps;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Token<R>> action) {
+        if (pending != null) {
+            action.accept(pending);
+            pending = null;
+            return true;
+        }
+        if (done)
+            return false;
+        if (!matcher.find()) {
+            done = true;
+            if (cursor == input.size() && !emptyGaps)
+                return false;
+            action.accept(new Token<>(input, cursor, input.size(), false));
+            return true;
+        }
+        Token<R> match = new Token<>(input, matcher.start(0), matcher.end(0), true);
+        int gapStart = cursor;
+        cursor = match.getEnd();
+        if (match.getStart() == gapStart && !emptyGaps) {
+            action.accept(match);
+            return true;
+        }
+        pending = match;
+        action.accept(new Token<>(input, gapStart, match.getStart(), false));
+        return true;
+    }
+}
@@ -0,0 +1,95 @@
+package regex.core;
+
+import regex.util.GenericTreeNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * Matches a pattern against every root-to-leaf path of a {@link GenericTreeNode} tree.
+ * The active positions of the pattern are carried down one depth-first walk and shared
+ * by all paths through a node, so every node is tested once whatever the number of
+ * leaves below it.
+ */
+public class TreePathMatcher<T, R> {
+    private final Glushkov<T> automaton;
+    private final boolean requiredStart;
+    private final boolean requiredEnd;
+    private final BiPredicate<T, R> compare;
+
+    private class Frame {
+        final GenericTreeNode<R> node;
+        /** active positions before reading the node */
+        final long[] state;
+        /** whether a match already ended on the path above the node */
+        final boolean found;
+        final boolean root;
+
+        Frame(GenericTreeNode<R> node, long[] state, boolean found, boolean root) {
+            this.node = node;
+            this.state = state;
+            this.found = found;
+            this.root = root;
+        }
+    }
+
+    TreePathMatcher(Pattern<T> pattern, BiPredicate<T, R> compare) {
+        this.automaton = pattern.getGlushkov();
+        if (automaton == null)
+            throw new IllegalStateException("pattern has no position automaton");
+        this.requiredStart = pattern.isRequiredStart();
+        this.requiredEnd = pattern.isRequiredEnd();
+        this.compare = compare;
+    }
+
+    /**
+     * @return leaves whose root-to-leaf path is matched, as {@link Matcher#match()} would on the path
+     */
+    public List<GenericTreeNode<R>> matchingLeaves(GenericTreeNode<R> root) {
+        return walk(root, false);
+    }
+
+    /**
+     * @return nodes at which a match of the pattern along a root-to-leaf path ends;
+     * for patterns ending with "$" these are the matching leaves
+     */
+    public List<GenericTreeNode<R>> matchEnds(GenericTreeNode<R> root) {
+        return requiredEnd ? walk(root, false) : walk(root, true);
+    }
+
+    private List<GenericTreeNode<R>> walk(GenericTreeNode<R> root, boolean ends) {
+        List<GenericTreeNode<R>> result = new ArrayList<>();
+        if (root == null)
+            return result;
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(root, new long[automaton.words], false, true));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.pop();
+            GenericTreeNode<R> node = frame.node;
+            boolean starting = !requiredStart || frame.root;
+            boolean found = frame.found || (starting && automaton.nullable && !requiredEnd);
+            long[] state = new long[automaton.words];
+            boolean alive = true;
+            if (!found || ends)
+                alive = automaton.step(frame.state, starting, node.getData(), compare, state);
+            boolean accepted = alive && automaton.accepts(state);
+            if (ends && accepted)
+                result.add(node);
+            found |= accepted && !requiredEnd;
+            List<GenericTreeNode<R>> children = node.getChildren();
+            if (children.isEmpty()) {
+                if (!ends && (found || accepted))
+                    result.add(node);
+                continue;
+            }
+            if (!found && !alive && requiredStart)
+                continue;
+            for (int i = children.size() - 1; i >= 0; --i)
+                stack.push(new Frame(children.get(i), state, found, false));
+        }
+        return result;
+    }
+}
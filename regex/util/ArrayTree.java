@@ -0,0 +1,213 @@
+package regex.util;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Struct-of-arrays n-ary tree: node i is an index into parallel arrays of parent,
+ * first child, last child and next sibling ids, -1 standing for no node. Node 0 is the
+ * root. Trees converted from {@link GenericTreeNode} are laid out in pre-order.
+ */
+public class ArrayTree<T> {
+	private static final int NONE = -1;
+
+	private int size;
+	private int[] parent;
+	private int[] firstChild;
+	private int[] lastChild;
+	private int[] nextSibling;
+	private Object[] data;
+
+	public ArrayTree() {
+		this(16);
+	}
+
+	public ArrayTree(int capacity) {
+		capacity = Math.max(1, capacity);
+		this.parent = new int[capacity];
+		this.firstChild = new int[capacity];
+		this.lastChild = new int[capacity];
+		this.nextSibling = new int[capacity];
+		this.data = new Object[capacity];
+	}
+
+	private int newNode(T value, int parentId) {
+		if (size == data.length) {
+			int capacity = size * 2;
+			parent = Arrays.copyOf(parent, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			lastChild = Arrays.copyOf(lastChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			data = Arrays.copyOf(data, capacity);
+		}
+		int id = size++;
+		parent[id] = parentId;
+		firstChild[id] = NONE;
+		lastChild[id] = NONE;
+		nextSibling[id] = NONE;
+		data[id] = value;
+		return id;
+	}
+
+	/**
+	 * @return id of the root, which is always 0
+	 */
+	public int addRoot(T value) {
+		if (size != 0)
+			throw new IllegalStateException("tree already has a root");
+		return newNode(value, NONE);
+	}
+
+	/**
+	 * append a child after the existing children of the parent
+	 * @return id of the new node
+	 */
+	public int addChild(int parentId, T value) {
+		if (parentId < 0 || parentId >= size)
+			throw new IndexOutOfBoundsException("no node " + parentId);
+		int id = newNode(value, parentId);
+		if (lastChild[parentId] == NONE)
+			firstChild[parentId] = id;
+		else
+			nextSibling[lastChild[parentId]] = id;
+		lastChild[parentId] = id;
+		return id;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T getData(int id) {
+		return (T) data[id];
+	}
+
+	public void setData(int id, T value) {
+		data[id] = value;
+	}
+
+	public int getParent(int id) {
+		return parent[id];
+	}
+
+	public int getFirstChild(int id) {
+		return firstChild[id];
+	}
+
+	public int getNextSibling(int id) {
+		return nextSibling[id];
+	}
+
+	public boolean hasChildren(int id) {
+		return firstChild[id] != NONE;
+	}
+
+	/**
+	 * @return the node following id in pre-order, or -1; walks up through the parents
+	 * instead of keeping a stack
+	 */
+	private int preOrderNext(int id) {
+		if (firstChild[id] != NONE)
+			return firstChild[id];
+		while (id != NONE && nextSibling[id] == NONE)
+			id = parent[id];
+		return id == NONE ? NONE : nextSibling[id];
+	}
+
+	public static <T> ArrayTree<T> of(GenericTreeNode<T> root) {
+		ArrayTree<T> tree = new ArrayTree<>();
+		if (root == null)
+			return tree;
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		Deque<Integer> parents = new ArrayDeque<>();
+		stack.push(root);
+		parents.push(NONE);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> node = stack.pop();
+			int parentId = parents.pop();
+			int id = parentId == NONE ? tree.addRoot(node.getData()) : tree.addChild(parentId, node.getData());
+			List<GenericTreeNode<T>> children = node.getChildren();
+			for (int i = children.size() - 1; i >= 0; --i) {
+				stack.push(children.get(i));
+				parents.push(id);
+			}
+		}
+		return tree;
+	}
+
+	public GenericTreeNode<T> toGenericTree() {
+		if (size == 0)
+			return null;
+		List<GenericTreeNode<T>> nodes = new ArrayList<>(size);
+		for (int i = 0; i < size; ++i)
+			nodes.add(new GenericTreeNode<>(getData(i)));
+		for (int id = 0; id != NONE; id = preOrderNext(id)) {
+			if (parent[id] != NONE)
+				nodes.get(parent[id]).addChild(nodes.get(id));
+		}
+		return nodes.get(0);
+	}
+
+	public void preOrderWalk(Consumer<? super T> consumer) {
+		if (size == 0)
+			return;
+		for (int id = 0; id != NONE; id = preOrderNext(id))
+			consumer.accept(getData(id));
+	}
+
+	/**
+	 * @return ids of the nodes whose data matches, in pre-order
+	 */
+	public <S> int[] findAll(S value, BiPredicate<T, S> comparator) {
+		int[] result = new int[8];
+		int count = 0;
+		if (size == 0)
+			return new int[0];
+		for (int id = 0; id != NONE; id = preOrderNext(id)) {
+			if (comparator.test(getData(id), value)) {
+				if (count == result.length)
+					result = Arrays.copyOf(result, count * 2);
+				result[count++] = id;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * same as {@link GenericTree#match}: the earliest embedding of the pre-order of the
+	 * pattern as a subsequence of the pre-order of this tree
+	 * @return ids of the matched nodes in pattern order, or null
+	 */
+	public <P> int[] match(ArrayTree<P> pattern, BiPredicate<T, P> nodeDataMatcher) {
+		if (size == 0 || pattern.size == 0)
+			return null;
+		int[] result = new int[pattern.size];
+		int matched = 0;
+		int p = 0;
+		for (int id = 0; id != NONE && p != NONE; id = preOrderNext(id)) {
+			if (nodeDataMatcher.test(getData(id), pattern.getData(p))) {
+				result[matched++] = id;
+				p = pattern.preOrderNext(p);
+			}
+		}
+		return p == NONE ? result : null;
+	}
+
+	/**
+	 * copy the structure arrays as they are and map the data
+	 */
+	public <D> ArrayTree<D> deepCopy(Function<T, D> copier) {
+		ArrayTree<D> copy = new ArrayTree<>(size);
+		copy.size = size;
+		System.arraycopy(parent, 0, copy.parent, 0, size);
+		System.arraycopy(firstChild, 0, copy.firstChild, 0, size);
+		System.arraycopy(lastChild, 0, copy.lastChild, 0, size);
+		System.arraycopy(nextSibling, 0, copy.nextSibling, 0, size);
+		for (int i = 0; i < size; ++i)
+			copy.data[i] = copier.apply(getData(i));
+		return copy;
+	}
+}
@@ -1,9 +1,14 @@
 package regex.util;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
+import java.util.function.BinaryOperator;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Created by Vivin Paliath on 1/26/2015.
@@ -11,6 +16,9 @@ import java.util.function.Function;
  */
 public class GenericTree {
 
+	/** pending subtrees of a parallel scan above which half of them are forked */
+	private static final int SPLIT_THRESHOLD = 64;
+
 	enum GenericTreeTraversalOrderEnum {
 		PRE_ORDER,
 		POST_ORDER
@@ -18,22 +26,16 @@ public class GenericTree {
 
 	public static <T> int getNumberOfNodes(GenericTreeNode<T> root) {
 		int numberOfNodes = 0;
-
-		if (root != null) {
-			numberOfNodes = getNumberOfNodesHelper(root) + 1; // 1 for the
-																	// root!
+		if (root == null)
+			return numberOfNodes;
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> node = stack.pop();
+			numberOfNodes++;
+			for (GenericTreeNode<T> child : node.getChildren())
+				stack.push(child);
 		}
-
-		return numberOfNodes;
-	}
-
-	private static <T> int getNumberOfNodesHelper(GenericTreeNode<T> node) {
-		int numberOfNodes = node.getNumberOfChildren();
-
-		for (GenericTreeNode<T> child : node.getChildren()) {
-			numberOfNodes += getNumberOfNodesHelper(child);
-		}
-
 		return numberOfNodes;
 	}
 
@@ -58,29 +60,64 @@ public class GenericTree {
 
 	private static <T> void buildPreOrder(GenericTreeNode<T> node,
 			List<GenericTreeNode<T>> traversalResult) {
-		traversalResult.add(node);
-
-		for (GenericTreeNode<T> child : node.getChildren()) {
-			buildPreOrder(child, traversalResult);
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(node);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> current = stack.pop();
+			traversalResult.add(current);
+			pushChildren(stack, current);
 		}
 	}
 
 	public static <T> void preOrderWalk(GenericTreeNode<T> root, Consumer<? super T> consumer) {
 		if (root == null)
 			return;
-		consumer.accept(root.getData());
-		for (GenericTreeNode<T> child : root.getChildren()) {
-			preOrderWalk(child, consumer);
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> node = stack.pop();
+			consumer.accept(node.getData());
+			pushChildren(stack, node);
+		}
+	}
+
+	/**
+	 * pre-order walk handing out the nodes instead of their data
+	 */
+	static <T> void preOrderWalkNodes(GenericTreeNode<T> root, Consumer<GenericTreeNode<T>> consumer) {
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> node = stack.pop();
+			consumer.accept(node);
+			pushChildren(stack, node);
 		}
 	}
 
+	/**
+	 * push the children in reverse order, so that they are popped in order
+	 */
+	private static <T> void pushChildren(Deque<GenericTreeNode<T>> stack, GenericTreeNode<T> node) {
+		List<GenericTreeNode<T>> children = node.getChildren();
+		for (int i = children.size() - 1; i >= 0; --i)
+			stack.push(children.get(i));
+	}
+
+	/**
+	 * post-order is the reverse of the pre-order visiting the children from last to first
+	 */
 	private static <T> void buildPostOrder(GenericTreeNode<T> node,
 			List<GenericTreeNode<T>> traversalResult) {
-		for (GenericTreeNode<T> child : node.getChildren()) {
-			buildPostOrder(child, traversalResult);
+		int offset = traversalResult.size();
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(node);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> current = stack.pop();
+			traversalResult.add(current);
+			for (GenericTreeNode<T> child : current.getChildren())
+				stack.push(child);
 		}
-
-		traversalResult.add(node);
+		Collections.reverse(traversalResult.subList(offset, traversalResult.size()));
 	}
 
 	public static <T> Map<GenericTreeNode<T>, Integer> buildWithDepth(
@@ -101,160 +138,223 @@ public class GenericTree {
 
 	private static <T> void buildPreOrderWithDepth(GenericTreeNode<T> node,
 			Map<GenericTreeNode<T>, Integer> traversalResult, int depth) {
-		traversalResult.put(node, depth);
-
-		for (GenericTreeNode<T> child : node.getChildren()) {
-			buildPreOrderWithDepth(child, traversalResult, depth + 1);
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		Deque<Integer> depths = new ArrayDeque<>();
+		stack.push(node);
+		depths.push(depth);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> current = stack.pop();
+			int currentDepth = depths.pop();
+			traversalResult.put(current, currentDepth);
+			List<GenericTreeNode<T>> children = current.getChildren();
+			for (int i = children.size() - 1; i >= 0; --i) {
+				stack.push(children.get(i));
+				depths.push(currentDepth + 1);
+			}
 		}
 	}
 
 	private static <T> void buildPostOrderWithDepth(GenericTreeNode<T> node,
 			Map<GenericTreeNode<T>, Integer> traversalResult, int depth) {
-		for (GenericTreeNode<T> child : node.getChildren()) {
-			buildPostOrderWithDepth(child, traversalResult, depth + 1);
+		List<GenericTreeNode<T>> order = new ArrayList<>();
+		List<Integer> orderDepths = new ArrayList<>();
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		Deque<Integer> depths = new ArrayDeque<>();
+		stack.push(node);
+		depths.push(depth);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> current = stack.pop();
+			int currentDepth = depths.pop();
+			order.add(current);
+			orderDepths.add(currentDepth);
+			for (GenericTreeNode<T> child : current.getChildren()) {
+				stack.push(child);
+				depths.push(currentDepth + 1);
+			}
 		}
-
-		traversalResult.put(node, depth);
+		for (int i = order.size() - 1; i >= 0; --i)
+			traversalResult.put(order.get(i), orderDepths.get(i));
 	}
 
+	/**
+	 * find the pattern tree, flattened in pre-order, as a subsequence of the
+	 * pre-order of the tree; the earliest embedding is returned
+	 * @return data of the matched nodes in pattern order, or null if the pattern is not embedded
+	 */
 	public static <T, P> List<T> match(GenericTreeNode<T> root, GenericTreeNode<P> pattern, BiPredicate<T, P> nodeDataMatcher) {
 		if (root == null || pattern == null)
 			return null;
-		List<T> sourceList = new ArrayList<>();
 		List<P> patternList = new ArrayList<>();
-		preOrderWalk(root, data -> sourceList.add(data));
 		preOrderWalk(pattern, data -> patternList.add(data));
-		List<Integer> matchIndex = listMatch(sourceList, patternList, nodeDataMatcher);
-		if (matchIndex == null)
-			return null;
-		List<T> result = new ArrayList<>();
-		matchIndex.forEach(index -> result.add(sourceList.get(index)));
-		return result;
-	}
-
-	private static <T, P> List<Integer> listMatch(List<T> source, List<P> pattern, BiPredicate<T, P> nodeDataMatcher) {
-		int srcLen = source.size();
-		int patLen = pattern.size();
-		if (srcLen == 0 || patLen == 0)
-			return null;
-
-		int[][] dp = new int[srcLen][patLen];
-		int matchLen = 0;
-		Pair<Integer, Integer> matchEnd = new Pair<>(0, 0);
-		List<Integer> result = new ArrayList<>();
-		for (int i = 0; i < srcLen; ++i) {
-			for (int j = 0; j < patLen; ++j) {
-				boolean matched = nodeDataMatcher.test(source.get(i), pattern.get(j));
-				if (i == 0 && j == 0) {
-					dp[i][j] = (matched ? 1 : 0);
-				} else if (i == 0) {
-					dp[i][j] = Math.max(dp[i][j - 1], matched ? 1 : 0);
-				} else if (j == 0) {
-					dp[i][j] = Math.max(dp[i - 1][j], matched ? 1 : 0);
-				} else {
-					int temp = Math.max(dp[i][j - 1], dp[i - 1][j]);
-					dp[i][j] = Math.max(temp, dp[i - 1][j - 1] + (matched ? 1 : 0));
-				}
-				if (matchLen < dp[i][j]) {
-					matchLen = dp[i][j];
-					matchEnd = new Pair<>(i, j);
-				}
-			}
-		}
-		if (matchLen != patLen)
-			return null;
-		Pair<Integer, Integer> cur = new Pair<>(matchEnd);
-		int pre = matchLen;
-		result.add(0, cur.getFirst());
-		while (pre > 0) {
-			cur = backTraceHelper(pre - 1, dp, new Pair<>(cur.getFirst() + 1, cur.getSecond() + 1));
-			result.add(cur.getFirst());
-			-- pre;
-		}
-		return result;
-	}
-
-	private static Pair<Integer, Integer> backTraceHelper(int value, int[][] dp, Pair<Integer, Integer> size) {
-		for (int dis = 0; dis <= Math.min(size.getFirst(), size.getSecond()); ++dis) {
-			for (int i = 1; i <= dis; ++i) {
-				if (dp[size.getFirst() - i][size.getSecond() - dis + i] == value) {
-					return new Pair<>(size.getFirst() - i, size.getSecond() - dis + i);
-				}
-			}
+		int patLen = patternList.size();
+		List<T> result = new ArrayList<>(patLen);
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty() && result.size() < patLen) {
+			GenericTreeNode<T> node = stack.pop();
+			if (nodeDataMatcher.test(node.getData(), patternList.get(result.size())))
+				result.add(node.getData());
+			List<GenericTreeNode<T>> children = node.getChildren();
+			for (int i = children.size() - 1; i >= 0; --i)
+				stack.push(children.get(i));
 		}
-		return new Pair<>(0, 0);
+		return result.size() == patLen ? result : null;
 	}
 
 	public static <S, D> GenericTreeNode<D> deepCopy(
 			GenericTreeNode<S> src, Function<S, D> copier) {
 		if (src == null)
 			return null;
-		GenericTreeNode<D> dst = new GenericTreeNode<>();
-		dst.setData(copier.apply(src.getData()));
-		for (GenericTreeNode<S> kid : src.getChildren()) {
-			dst.addChild(deepCopy(kid, copier));
+		GenericTreeNode<D> root = new GenericTreeNode<>();
+		Deque<GenericTreeNode<S>> sources = new ArrayDeque<>();
+		Deque<GenericTreeNode<D>> copies = new ArrayDeque<>();
+		sources.push(src);
+		copies.push(root);
+		while (!sources.isEmpty()) {
+			GenericTreeNode<S> source = sources.pop();
+			GenericTreeNode<D> dst = copies.pop();
+			dst.setData(copier.apply(source.getData()));
+			for (GenericTreeNode<S> kid : source.getChildren()) {
+				GenericTreeNode<D> copy = new GenericTreeNode<>();
+				dst.addChild(copy);
+				sources.push(kid);
+				copies.push(copy);
+			}
 		}
-		return dst;
+		return root;
 	}
 
 	public static <T, S> Set<GenericTreeNode<T>> findAll(GenericTreeNode<T> root, S data, BiPredicate<T, S> comparator) {
 		Set<GenericTreeNode<T>> results = new HashSet<>();
-		findAllHelper(root, data, comparator, results);
+		if (root == null)
+			return results;
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> node = stack.pop();
+			if (comparator.test(node.data, data))
+				results.add(node);
+			for (GenericTreeNode<T> child : node.getChildren())
+				stack.push(child);
+		}
 		return results;
 	}
 
-	private static <T, S> void findAllHelper(GenericTreeNode<T> root, S data, BiPredicate<T, S> comparator, Set<GenericTreeNode<T>> results) {
-		if (comparator.test(root.data, data)) {
-			results.add(root);
-		}
-		for (GenericTreeNode<T> child : root.getChildren()) {
-			findAllHelper(child, data, comparator, results);
+	public static <T> GenericTreeNode<T> find(GenericTreeNode<T> root, GenericTreeNode<T> nodeToFind) {
+		if (root == null)
+			return null;
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> currentNode = stack.pop();
+			if (currentNode.equals(nodeToFind))
+				return currentNode;
+			pushChildren(stack, currentNode);
 		}
+		return null;
 	}
 
-	public static <T> GenericTreeNode<T> find(GenericTreeNode<T> root, GenericTreeNode<T> nodeToFind) {
-		GenericTreeNode<T> returnNode = null;
-
-		if (root != null) {
-			returnNode = findHelper(root, nodeToFind);
+	public static <T> Set<T> getAllData(GenericTreeNode<T> root) {
+		Set<T> result = new HashSet<>();
+		if (root == null)
+			return result;
+		Deque<GenericTreeNode<T>> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			GenericTreeNode<T> node = stack.pop();
+			if (node.data != null)
+				result.add(node.data);
+			for (GenericTreeNode<T> child : node.getChildren())
+				stack.push(child);
 		}
+		return result;
+	}
 
-		return returnNode;
+	public static <T> int getNumberOfNodesParallel(GenericTreeNode<T> root) {
+		if (root == null)
+			return 0;
+		int[] count = ForkJoinPool.commonPool().invoke(new ParallelScan<T, int[]>(root,
+				() -> new int[1], (acc, node) -> acc[0]++, (a, b) -> {
+					a[0] += b[0];
+					return a;
+				}));
+		return count[0];
 	}
 
-	private static <T, S> GenericTreeNode<T> findHelper(GenericTreeNode<T> currentNode,
-													 GenericTreeNode<T> nodeToFind) {
-		GenericTreeNode<T> returnNode = null;
-		int i = 0;
+	public static <T, S> Set<GenericTreeNode<T>> findAllParallel(GenericTreeNode<T> root, S data, BiPredicate<T, S> comparator) {
+		if (root == null)
+			return new HashSet<>();
+		return ForkJoinPool.commonPool().invoke(new ParallelScan<T, Set<GenericTreeNode<T>>>(root,
+				HashSet::new, (acc, node) -> {
+					if (comparator.test(node.data, data))
+						acc.add(node);
+				}, GenericTree::merge));
+	}
 
-		if (currentNode.equals(nodeToFind)) {
-			returnNode = currentNode;
-		}
+	public static <T> Set<T> getAllDataParallel(GenericTreeNode<T> root) {
+		if (root == null)
+			return new HashSet<>();
+		return ForkJoinPool.commonPool().invoke(new ParallelScan<T, Set<T>>(root,
+				HashSet::new, (acc, node) -> {
+					if (node.data != null)
+						acc.add(node.data);
+				}, GenericTree::merge));
+	}
 
-		else if (currentNode.hasChildren()) {
-			i = 0;
-			while (returnNode == null && i < currentNode.getNumberOfChildren()) {
-				returnNode = findHelper(currentNode.getChildAt(i),
-						nodeToFind);
-				i++;
-			}
+	private static <E> Set<E> merge(Set<E> a, Set<E> b) {
+		if (a.size() < b.size()) {
+			b.addAll(a);
+			return b;
 		}
-
-		return returnNode;
+		a.addAll(b);
+		return a;
 	}
 
-	public static <T> Set<T> getAllData(GenericTreeNode<T> root) {
-		Set<T> result = new HashSet<>();
-		getAllDataHelper(root, result);
-		return result;
-	}
+	/**
+	 * visits a forest of pending subtrees with an explicit stack; when too many subtrees
+	 * are pending, e.g. below a wide node, the older half is forked into a new task
+	 */
+	private static class ParallelScan<T, A> extends RecursiveTask<A> {
+		private static final long serialVersionUID = -4786209436617317651L;
+		private final Deque<GenericTreeNode<T>> stack;
+		private final Supplier<A> supplier;
+		private final BiConsumer<A, GenericTreeNode<T>> accumulator;
+		private final BinaryOperator<A> combiner;
+
+		ParallelScan(GenericTreeNode<T> root, Supplier<A> supplier,
+				BiConsumer<A, GenericTreeNode<T>> accumulator, BinaryOperator<A> combiner) {
+			this(new ArrayDeque<>(Collections.singleton(root)), supplier, accumulator, combiner);
+		}
 
-	private static <T> void getAllDataHelper(GenericTreeNode<T> root, Set<T> result) {
-		if (root.data != null) {
-			result.add(root.data);
+		private ParallelScan(Deque<GenericTreeNode<T>> stack, Supplier<A> supplier,
+				BiConsumer<A, GenericTreeNode<T>> accumulator, BinaryOperator<A> combiner) {
+			this.stack = stack;
+			this.supplier = supplier;
+			this.accumulator = accumulator;
+			this.combiner = combiner;
 		}
-		for (GenericTreeNode<T> child : root.getChildren()) {
-			getAllDataHelper(child, result);
+
+		@Override
+		protected A compute() {
+			A result = supplier.get();
+			List<ParallelScan<T, A>> forks = new ArrayList<>();
+			while (!stack.isEmpty()) {
+				if (stack.size() > SPLIT_THRESHOLD) {
+					Deque<GenericTreeNode<T>> half = new ArrayDeque<>();
+					for (int i = stack.size() / 2; i > 0; --i)
+						half.push(stack.pollLast());
+					ParallelScan<T, A> fork = new ParallelScan<>(half, supplier, accumulator, combiner);
+					fork.fork();
+					forks.add(fork);
+				}
+				GenericTreeNode<T> node = stack.pop();
+				accumulator.accept(result, node);
+				for (GenericTreeNode<T> child : node.getChildren())
+					stack.push(child);
+			}
+			for (ParallelScan<T, A> fork : forks)
+				result = combiner.apply(result, fork.join());
+			return result;
 		}
 	}
 
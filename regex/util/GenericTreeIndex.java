@@ -0,0 +1,120 @@
+package regex.util;
+
+import java.util.*;
+
+/**
+ * Immutable index of a snapshot of a tree. Nodes are numbered in pre-order, so the subtree
+ * of node i is the id range [i, exit[i]]; ancestor, depth and subtree size queries are
+ * answered from arrays, and membership queries from hash maps.
+ * The index must be rebuilt after the tree is modified.
+ */
+public class GenericTreeIndex<T> {
+	private final List<GenericTreeNode<T>> nodes;
+	private final Map<GenericTreeNode<T>, Integer> ids;
+	/** first node in pre-order of each data value */
+	private final Map<T, Integer> firstByData;
+	private final int[] exit;
+	private final int[] depth;
+	private final int[] parent;
+
+	private GenericTreeIndex(GenericTreeNode<T> root) {
+		this.nodes = new ArrayList<>();
+		this.ids = new IdentityHashMap<>();
+		this.firstByData = new HashMap<>();
+		if (root != null)
+			GenericTree.preOrderWalkNodes(root, nodes::add);
+		int size = nodes.size();
+		this.exit = new int[size];
+		this.depth = new int[size];
+		this.parent = new int[size];
+		for (int i = 0; i < size; ++i) {
+			GenericTreeNode<T> node = nodes.get(i);
+			ids.put(node, i);
+			firstByData.putIfAbsent(node.getData(), i);
+			Integer parentId = i == 0 ? null : ids.get(node.getParent());
+			parent[i] = parentId == null ? -1 : parentId;
+			depth[i] = parent[i] == -1 ? 0 : depth[parent[i]] + 1;
+			exit[i] = i;
+		}
+		for (int i = size - 1; i > 0; --i) {
+			if (parent[i] != -1 && exit[i] > exit[parent[i]])
+				exit[parent[i]] = exit[i];
+		}
+	}
+
+	public static <T> GenericTreeIndex<T> build(GenericTreeNode<T> root) {
+		return new GenericTreeIndex<>(root);
+	}
+
+	public int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * @return pre-order id of the node, or -1 if the node is not in the indexed tree
+	 */
+	public int id(GenericTreeNode<T> node) {
+		Integer id = ids.get(node);
+		return id == null ? -1 : id;
+	}
+
+	public GenericTreeNode<T> node(int id) {
+		return nodes.get(id);
+	}
+
+	public boolean contains(GenericTreeNode<T> node) {
+		return ids.containsKey(node);
+	}
+
+	/**
+	 * same result as {@link GenericTree#exists}, i.e. whether a node holds equal data
+	 */
+	public boolean exists(GenericTreeNode<T> nodeToFind) {
+		return firstByData.containsKey(nodeToFind.getData());
+	}
+
+	/**
+	 * same result as {@link GenericTree#find}, i.e. the first node in pre-order holding equal data
+	 */
+	public GenericTreeNode<T> find(GenericTreeNode<T> nodeToFind) {
+		Integer id = firstByData.get(nodeToFind.getData());
+		return id == null ? null : nodes.get(id);
+	}
+
+	/**
+	 * @return whether ancestor is a proper ancestor of descendant
+	 */
+	public boolean isAncestor(GenericTreeNode<T> ancestor, GenericTreeNode<T> descendant) {
+		int a = id(ancestor);
+		int d = id(descendant);
+		return a != -1 && d != -1 && a < d && d <= exit[a];
+	}
+
+	public boolean isDescendant(GenericTreeNode<T> descendant, GenericTreeNode<T> ancestor) {
+		return isAncestor(ancestor, descendant);
+	}
+
+	/**
+	 * @return depth of the node, 0 for the root, or -1 if the node is not indexed
+	 */
+	public int depth(GenericTreeNode<T> node) {
+		int id = id(node);
+		return id == -1 ? -1 : depth[id];
+	}
+
+	/**
+	 * @return number of nodes in the subtree of the node, or 0 if the node is not indexed
+	 */
+	public int subtreeSize(GenericTreeNode<T> node) {
+		int id = id(node);
+		return id == -1 ? 0 : exit[id] - id + 1;
+	}
+
+	/**
+	 * @return nodes of the subtree of the node in pre-order, as a view of the index
+	 */
+	public List<GenericTreeNode<T>> subtree(GenericTreeNode<T> node) {
+		int id = id(node);
+		return id == -1 ? Collections.<GenericTreeNode<T>>emptyList() : Collections.unmodifiableList(nodes.subList(id, exit[id] + 1));
+	}
+}
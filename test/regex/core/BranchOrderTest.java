@@ -0,0 +1,68 @@
+package regex.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiPredicate;
+
+import static regex.core.ValueChecker.expect;
+
+/**
+ * the adaptive branch order changes how fast test() finds a match, never its result, also on
+ * the sampled runs of the reverse order; a skewed input publishes an order trying the
+ * alternative that hits first
+ */
+public class BranchOrderTest {
+    private static final String[] REGEXES = {
+            "(=1|=2|%3)+ =5",
+            "[=1 =2 =3] .* =4",
+            "(=1 =2*|.)* =5",
+            "^(<3|>4)+ (=5|%2)$",
+            "=1 .* (=2|=3)? =4"
+    };
+
+    public static void main(String[] args) {
+        Random random = new Random(50);
+        for (String regex : REGEXES) {
+            Pattern<ValueChecker> plain = Pattern.compile(regex, ValueChecker::new);
+            Pattern<ValueChecker> adaptive = Pattern.compile(regex, ValueChecker::new);
+            BranchOrder<ValueChecker> order = adaptive.enableAdaptiveBranchOrder();
+            expect(order.getBranchCount() > 0, regex + " has no branch to reorder");
+            for (int round = 0; round < 20000; ++round) {
+                Integer[] values = new Integer[random.nextInt(10)];
+                for (int i = 0; i < values.length; ++i)
+                    values[i] = round % 3 == 0 ? 1 : random.nextInt(7);
+                List<Integer> input = Arrays.asList(values);
+                expect(adaptive.test(input, ValueChecker::check) == plain.test(input, ValueChecker::check),
+                        regex + " differs with " + order + " on " + input);
+            }
+            expect(order.getSamples() >= BranchOrder.REORDER_INTERVAL, regex + " was not sampled: " + order);
+        }
+        skewed();
+        System.out.println("BranchOrderTest passed");
+    }
+
+    /**
+     * in compile order "=1|=2" tries =2 first, see {@link PatternBuilder#alt}; on inputs of 1 that
+     * alternative never hits, so the branch is swapped and a new version is published
+     */
+    private static void skewed() {
+        Pattern<ValueChecker> pattern = Pattern.compile("(=1|=2)", ValueChecker::new);
+        BranchOrder<ValueChecker> order = pattern.enableAdaptiveBranchOrder();
+        expect(order.getVersion() == 0 && !order.isSwapped(0), "new order is not the compile order");
+        List<Integer> input = Collections.singletonList(1);
+        BiPredicate<ValueChecker, Integer> slow = (literal, value) -> {
+            /** make both alternatives cost the same measurable time */
+            long until = System.nanoTime() + 2000;
+            while (System.nanoTime() < until)
+                ;
+            return literal.check(value);
+        };
+        for (int round = 0; round < 100000 && order.getVersion() == 0; ++round)
+            expect(pattern.test(input, slow), "missed a match while reordering");
+        expect(order.getVersion() == 1, "no new order published: " + order);
+        expect(order.isSwapped(0), "the alternative hitting is not tried first: " + order);
+        expect(order.getHitRate(0, 0) == 0 && order.getHitRate(0, 1) == 1, "wrong hit rates: " + order);
+    }
+}
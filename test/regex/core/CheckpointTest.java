@@ -0,0 +1,176 @@
+package regex.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static regex.core.ValueChecker.expect;
+
+/**
+ * a streaming matcher checkpointed, restored into a fresh matcher and fed the rest of the
+ * stream gives the results of an uninterrupted run; a checkpoint of another pattern of the
+ * same shape is rejected
+ */
+public class CheckpointTest {
+    private static final String[] REGEXES = {
+            "=1 =2 =3",
+            "(=1|=2|%3)+ =5",
+            "=1 .* =4",
+            "(=1 =2*)* =5",
+            "^=1 .? %2",
+            "<3 >2$"
+    };
+
+    private static final Codec<Integer> INT = new Codec<Integer>() {
+        @Override
+        public void write(Integer value, DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(43);
+        for (String regex : REGEXES) {
+            Pattern<ValueChecker> pattern = Pattern.compile(regex, ValueChecker::new);
+            for (int round = 0; round < 100; ++round) {
+                List<Integer> stream = new ArrayList<>();
+                for (int i = random.nextInt(16); i >= 0; --i)
+                    stream.add(random.nextInt(7));
+                int cut = random.nextInt(stream.size() + 1);
+                incremental(pattern, regex, stream, cut);
+                replacer(pattern, regex, stream, cut);
+                partitioned(pattern, regex, stream, cut);
+            }
+        }
+        rejectOtherPattern();
+        System.out.println("CheckpointTest passed");
+    }
+
+    private static void incremental(Pattern<ValueChecker> pattern, String regex, List<Integer> stream, int cut)
+            throws IOException {
+        IncrementalMatcher<ValueChecker, Integer> whole = pattern.incrementalMatcher(new ArrayList<>(), ValueChecker::check);
+        IncrementalMatcher<ValueChecker, Integer> first = pattern.incrementalMatcher(new ArrayList<>(), ValueChecker::check);
+        for (int i = 0; i < cut; ++i) {
+            whole.append(stream.get(i));
+            first.append(stream.get(i));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        first.checkpoint(new DataOutputStream(bytes), INT);
+        IncrementalMatcher<ValueChecker, Integer> resumed = pattern.incrementalMatcher(new ArrayList<>(), ValueChecker::check)
+                .restore(in(bytes), INT);
+        for (int i = cut; i <= stream.size(); ++i) {
+            expect(resumed.matched() == whole.matched() && resumed.matchStart() == whole.matchStart()
+                            && resumed.matchEnd() == whole.matchEnd(),
+                    regex + ": incremental matcher resumed at " + cut + " differs on " + stream.subList(0, i));
+            if (i < stream.size()) {
+                whole.append(stream.get(i));
+                resumed.append(stream.get(i));
+            }
+        }
+    }
+
+    private static void replacer(Pattern<ValueChecker> pattern, String regex, List<Integer> stream, int cut)
+            throws IOException {
+        List<Integer> expected = new ArrayList<>();
+        StreamReplacer<ValueChecker, Integer> whole = pattern.replacer(ValueChecker::check, CheckpointTest::mark, expected::add);
+        stream.forEach(whole::push);
+        whole.finish();
+
+        List<Integer> written = new ArrayList<>();
+        StreamReplacer<ValueChecker, Integer> first = pattern.replacer(ValueChecker::check, CheckpointTest::mark, written::add);
+        stream.subList(0, cut).forEach(first::push);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        first.checkpoint(new DataOutputStream(bytes), INT);
+        StreamReplacer<ValueChecker, Integer> resumed = pattern.replacer(ValueChecker::check, CheckpointTest::mark, written::add)
+                .restore(in(bytes), INT);
+        stream.subList(cut, stream.size()).forEach(resumed::push);
+        resumed.finish();
+        expect(written.equals(expected), regex + ": replacer resumed at " + cut + " wrote " + written
+                + " instead of " + expected);
+    }
+
+    private static List<Integer> mark(Matcher.MatchedResult<Integer> result) {
+        List<Integer> replaced = new ArrayList<>(result.group(0));
+        replaced.add(0, -1);
+        return replaced;
+    }
+
+    /**
+     * the stream is dealt round-robin to three keys
+     */
+    private static void partitioned(Pattern<ValueChecker> pattern, String regex, List<Integer> stream, int cut)
+            throws IOException {
+        PartitionedMatcher<ValueChecker, Integer, Integer> whole = pattern.partitionedMatcher(ValueChecker::check, 2);
+        PartitionedMatcher<ValueChecker, Integer, Integer> first = pattern.partitionedMatcher(ValueChecker::check, 2);
+        for (int i = 0; i < cut; ++i) {
+            whole.feed(i % 3, stream.get(i));
+            first.feed(i % 3, stream.get(i));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        first.checkpoint(new DataOutputStream(bytes), INT);
+        PartitionedMatcher<ValueChecker, Integer, Integer> resumed = pattern
+                .<Integer, Integer>partitionedMatcher(ValueChecker::check, 4).restore(in(bytes), INT);
+        expect(resumed.size() == whole.size(), regex + ": restored " + resumed.size() + " keys of " + whole.size());
+        for (int i = cut; i < stream.size(); ++i) {
+            expect(resumed.feed(i % 3, stream.get(i)) == whole.feed(i % 3, stream.get(i)),
+                    regex + ": partitioned matcher resumed at " + cut + " differs at " + i + " of " + stream);
+        }
+    }
+
+    private static void rejectOtherPattern() throws IOException {
+        Pattern<ValueChecker> written = Pattern.compile("=1 =2 =3", ValueChecker::new);
+        Pattern<ValueChecker> other = Pattern.compile("=1 =2 =4", ValueChecker::new);
+        List<Integer> input = new ArrayList<>();
+        input.add(1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        written.incrementalMatcher(input, ValueChecker::check).checkpoint(new DataOutputStream(bytes), INT);
+        expect(rejected(() -> other.incrementalMatcher(new ArrayList<>(), ValueChecker::check).restore(in(bytes), INT)),
+                "restored an incremental checkpoint of another pattern");
+        expect(rejected(() -> other.replacer(ValueChecker::check, CheckpointTest::mark, value -> { })
+                        .restore(in(bytes), INT)),
+                "restored a checkpoint of another kind of matcher");
+        expect(!rejected(() -> written.incrementalMatcher(new ArrayList<>(), ValueChecker::check).restore(in(bytes), INT)),
+                "rejected a checkpoint of the same pattern");
+
+        bytes.reset();
+        written.replacer(ValueChecker::check, CheckpointTest::mark, value -> { }).checkpoint(new DataOutputStream(bytes), INT);
+        expect(rejected(() -> other.replacer(ValueChecker::check, CheckpointTest::mark, value -> { }).restore(in(bytes), INT)),
+                "restored a replacer checkpoint of another pattern");
+
+        bytes.reset();
+        PartitionedMatcher<ValueChecker, Integer, Integer> partitioned = written.partitionedMatcher(ValueChecker::check, 2);
+        partitioned.feed(7, 1);
+        partitioned.checkpoint(new DataOutputStream(bytes), INT);
+        expect(rejected(() -> other.<Integer, Integer>partitionedMatcher(ValueChecker::check, 2).restore(in(bytes), INT)),
+                "restored a partitioned checkpoint of another pattern");
+    }
+
+    private interface Restore {
+        void run() throws IOException;
+    }
+
+    private static boolean rejected(Restore restore) {
+        try {
+            restore.run();
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static DataInputStream in(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
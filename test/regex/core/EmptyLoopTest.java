@@ -0,0 +1,45 @@
+package regex.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static regex.core.ValueChecker.expect;
+
+/**
+ * loops whose body can match the empty sequence fail fast on both tiers instead of repeating
+ * the empty iteration until the stack or the heap runs out
+ */
+public class EmptyLoopTest {
+    private static final List<Integer> INPUT = Collections.singletonList(1);
+
+    public static void main(String[] args) {
+        for (String regex : new String[]{"(<2*)+ =5", "(<2*)* =5"}) {
+            expect(Pattern.compile(regex, ValueChecker::new).explain().contains("tier: interpreted"),
+                    regex + " is not interpreted");
+            expectNoMatch(regex, false);
+            expectNoMatch(regex, true);
+        }
+        expectNoMatch("<2** =5", false);
+        expectNoMatch("<2** =5", true);
+
+        Pattern<ValueChecker> pattern = Pattern.compile("(<2*)* (=5)?", ValueChecker::new);
+        for (boolean compiled : new boolean[]{false, true}) {
+            if (compiled)
+                pattern.enableCompiledTier();
+            Matcher<ValueChecker, Integer> matcher = pattern.matcher(Arrays.asList(1, 0, 7), ValueChecker::check);
+            expect(matcher.find() && matcher.start(0) == 0 && matcher.end(0) == 2,
+                    "loop stopped before reading all it can, compiled " + compiled);
+        }
+        expect(pattern.explain().contains("tier: compiled"), "compiled tier not reported");
+        System.out.println("EmptyLoopTest passed");
+    }
+
+    private static void expectNoMatch(String regex, boolean compiled) {
+        Pattern<ValueChecker> pattern = Pattern.compile(regex, ValueChecker::new);
+        if (compiled)
+            pattern.enableCompiledTier();
+        expect(!pattern.matcher(INPUT, ValueChecker::check).find(), regex + " matched, compiled " + compiled);
+        expect(!pattern.test(INPUT, ValueChecker::check), regex + " tested true, compiled " + compiled);
+    }
+}
@@ -0,0 +1,57 @@
+package regex.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static regex.core.ValueChecker.expect;
+
+/**
+ * after every append and drop an incremental matcher gives the result of a batch match
+ * over the whole current list, including matches spanning several appends
+ */
+public class IncrementalMatcherTest {
+    private static final String[] REGEXES = {
+            "=1 =2 =3",
+            "(=1|=2|%3)+ =5",
+            "=1 .* =4",
+            "(=1 =2*)* =5",
+            "^=1 .? %2",
+            "<3 >2$",
+            "^.? (=4|=5) %2*$"
+    };
+
+    public static void main(String[] args) {
+        Pattern<ValueChecker> split = Pattern.compile("=1 =2 =3", ValueChecker::new);
+        IncrementalMatcher<ValueChecker, Integer> matcher = split.incrementalMatcher(new ArrayList<>(), ValueChecker::check);
+        expect(!matcher.append(1).matched() && !matcher.append(2).matched(), "matched a prefix");
+        expect(matcher.append(3).matched(), "missed a match spanning three appends");
+        expect(matcher.matchStart() == 0 && matcher.matchEnd() == 3, "wrong bounds of a spanning match");
+        expect(!matcher.dropFirst(1).matched(), "kept a match starting in a dropped prefix");
+
+        Random random = new Random(33);
+        for (String regex : REGEXES) {
+            Pattern<ValueChecker> pattern = Pattern.compile(regex, ValueChecker::new);
+            for (int round = 0; round < 100; ++round)
+                compare(pattern, regex, random);
+        }
+        System.out.println("IncrementalMatcherTest passed");
+    }
+
+    private static void compare(Pattern<ValueChecker> pattern, String regex, Random random) {
+        IncrementalMatcher<ValueChecker, Integer> matcher = pattern.incrementalMatcher(new ArrayList<>(), ValueChecker::check);
+        for (int step = 0; step < 8; ++step) {
+            if (step > 0 && random.nextInt(4) == 0) {
+                matcher.dropFirst(random.nextInt(3));
+            } else {
+                List<Integer> chunk = new ArrayList<>();
+                for (int i = random.nextInt(4); i >= 0; --i)
+                    chunk.add(random.nextInt(7));
+                matcher.appendAll(chunk);
+            }
+            List<Integer> input = new ArrayList<>(matcher.getInput());
+            boolean expected = pattern.matcher(input, ValueChecker::check).match();
+            expect(matcher.matched() == expected, regex + " differs from the batch match on " + input);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package regex.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static regex.core.ValueChecker.expect;
+
+/**
+ * snapshots of the cursors are indexed from the start of the range, also after the elements
+ * before it were released; a released range of an iterator can't be taken
+ */
+public class InputCursorTest {
+    public static void main(String[] args) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 40; ++i)
+            values.add(i);
+        checkRelease(InputCursor.of(values.iterator()), false);
+        checkRelease(InputCursor.of(new LinkedList<>(values)), true);
+        checkRelease(InputCursor.of(values), true);
+        checkRelease(InputCursor.of(values.toArray(new Integer[0])), true);
+
+        Matcher<ValueChecker, Integer> matcher = Pattern.compile("(=7) (=8)", ValueChecker::new)
+                .matcher(values.iterator(), ValueChecker::check);
+        expect(matcher.find(), "no match");
+        Matcher.MatchedResult<Integer> result = matcher.getResult();
+        expect(result.group(0).equals(Arrays.asList(7, 8)) && result.group(2).equals(Arrays.asList(8)),
+                "groups of the snapshot moved");
+        System.out.println("InputCursorTest passed");
+    }
+
+    private static void checkRelease(InputCursor<Integer> cursor, boolean rereadable) {
+        expect(cursor.has(30), "input too short");
+        cursor.release(20);
+        List<Integer> snapshot = cursor.snapshot(22, 26);
+        expect(snapshot.size() == 4 && snapshot.get(0) == 22 && snapshot.get(3) == 25,
+                "snapshot not indexed from its start: " + snapshot);
+        cursor.release(28);
+        expect(snapshot.equals(Arrays.asList(22, 23, 24, 25)), "snapshot changed by a release");
+        try {
+            List<Integer> released = cursor.snapshot(10, 12);
+            expect(rereadable && released.equals(Arrays.asList(10, 11)), "released snapshot " + released);
+        } catch (IllegalStateException e) {
+            expect(!rereadable, "rereadable input refused a snapshot");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package regex.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static regex.core.ValueChecker.expect;
+
+/**
+ * a written and read pattern is equivalent to the written one: same analysis, same engines,
+ * same results, same groups
+ */
+public class PatternSerializerTest {
+    private static final String[] REGEXES = {
+            "=1 =2 =3",
+            "^(<3 >2+?) (>2) =5+ .* %2$",
+            "[=1 =2 =3] .* =4",
+            "(=1|=2|%3)+ =5",
+            "(=1 =2*)* =5",
+            "(?>=1 .*) =2",
+            "=1*+ =2",
+            "^.? (=4|=5) %2*$"
+    };
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(29);
+        List<List<Integer>> inputs = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            Integer[] values = new Integer[random.nextInt(12)];
+            for (int j = 0; j < values.length; ++j)
+                values[j] = random.nextInt(7);
+            inputs.add(Arrays.asList(values));
+        }
+        for (String regex : REGEXES) {
+            roundTrip(Pattern.compile(regex, ValueChecker::new), false, inputs);
+            roundTrip(Pattern.compile(regex, ValueChecker::new, ValueChecker::key), true, inputs);
+        }
+        System.out.println("PatternSerializerTest passed");
+    }
+
+    private static void roundTrip(Pattern<ValueChecker> pattern, boolean keyed, List<List<Integer>> inputs)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PatternSerializer.write(pattern, new DataOutputStream(bytes));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Pattern<ValueChecker> restored = keyed
+                ? PatternSerializer.read(in, ValueChecker::new, ValueChecker::key)
+                : PatternSerializer.read(in, ValueChecker::new);
+        expect(restored.explain().equals(pattern.explain()), "explain differs:\n" + pattern.explain()
+                + "\n---\n" + restored.explain());
+        expect((restored.getGlushkov() == null) == (pattern.getGlushkov() == null), "position automaton lost");
+        expect((restored.getPrefixScan() == null) == (pattern.getPrefixScan() == null), "prefix scan lost");
+        for (List<Integer> input : inputs) {
+            expect(restored.test(input, ValueChecker::check) == pattern.test(input, ValueChecker::check),
+                    "test differs on " + input);
+            Matcher<ValueChecker, Integer> expected = pattern.matcher(input, ValueChecker::check, Integer::valueOf);
+            Matcher<ValueChecker, Integer> actual = restored.matcher(input, ValueChecker::check, Integer::valueOf);
+            boolean found = expected.match();
+            expect(actual.match() == found, "match differs on " + input);
+            for (int group = 0; found && group <= expected.groupCount(); ++group)
+                expect(actual.start(group) == expected.start(group) && actual.end(group) == expected.end(group),
+                        "bounds of group " + group + " differ on " + input);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package regex.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static regex.core.ValueChecker.expect;
+
+/**
+ * replaceAll rewrites the matches of Matcher.find(), and a stream replacer fed one element
+ * at a time writes the same list as replaceAll, including matches spanning several pushes
+ */
+public class StreamReplacerTest {
+    private static final String[] REGEXES = {
+            "=1 =2 =3",
+            "(=1|=2|%3)+ =5",
+            "=1 .* =4",
+            "=1*",
+            "(=1 =2*)* =5",
+            "^=1 .? %2",
+            "<3 >2$",
+            "^.? (=4|=5) %2*$"
+    };
+
+    /** a match is replaced by its elements in reverse order between two markers */
+    private static final Function<Matcher.MatchedResult<Integer>, List<Integer>> REVERSE = result -> {
+        List<Integer> replaced = new ArrayList<>(result.group(0));
+        Collections.reverse(replaced);
+        replaced.add(0, -1);
+        replaced.add(-1);
+        return replaced;
+    };
+
+    public static void main(String[] args) {
+        Pattern<ValueChecker> split = Pattern.compile("=1 =2 =3", ValueChecker::new);
+        List<Integer> written = new ArrayList<>();
+        StreamReplacer<ValueChecker, Integer> replacer = split.replacer(ValueChecker::check, REVERSE, written::add);
+        for (int value : new int[]{0, 1, 2})
+            replacer.push(value);
+        expect(written.equals(Collections.singletonList(0)), "wrote a possible match start: " + written);
+        replacer.push(3);
+        replacer.finish();
+        expect(written.equals(Arrays.asList(0, -1, 3, 2, 1, -1)), "missed a match spanning pushes: " + written);
+
+        Random random = new Random(40);
+        for (String regex : REGEXES) {
+            Pattern<ValueChecker> pattern = Pattern.compile(regex, ValueChecker::new);
+            for (int round = 0; round < 200; ++round) {
+                Integer[] values = new Integer[random.nextInt(14)];
+                for (int i = 0; i < values.length; ++i)
+                    values[i] = random.nextInt(7);
+                compare(pattern, regex, Arrays.asList(values));
+            }
+        }
+        System.out.println("StreamReplacerTest passed");
+    }
+
+    private static void compare(Pattern<ValueChecker> pattern, String regex, List<Integer> input) {
+        List<Integer> expected = new ArrayList<>();
+        Matcher<ValueChecker, Integer> matcher = pattern.matcher(input, ValueChecker::check);
+        int cursor = 0;
+        while (matcher.find()) {
+            expected.addAll(input.subList(cursor, matcher.start(0)));
+            expected.addAll(REVERSE.apply(matcher.getResult()));
+            cursor = matcher.end(0);
+        }
+        expected.addAll(input.subList(cursor, input.size()));
+        expect(pattern.replaceAll(input, ValueChecker::check, REVERSE).equals(expected),
+                regex + ": replaceAll differs from the matches of find on " + input);
+
+        List<Integer> written = new ArrayList<>();
+        StreamReplacer<ValueChecker, Integer> replacer = pattern.replacer(ValueChecker::check, REVERSE, written::add);
+        for (Integer value : input)
+            replacer.push(value);
+        replacer.finish();
+        expect(written.equals(expected), regex + ": streamed " + written + " instead of " + expected + " on " + input);
+    }
+}
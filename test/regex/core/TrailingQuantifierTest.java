@@ -0,0 +1,32 @@
+package regex.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static regex.core.ValueChecker.expect;
+
+/**
+ * a + or * ending the regex is greedy, as everywhere else; only a following ? makes it lazy
+ */
+public class TrailingQuantifierTest {
+    private static final List<Integer> INPUT = Arrays.asList(1, 5, 5, 5);
+
+    public static void main(String[] args) {
+        expectEnd("=1 =5+", 4);
+        expectEnd("=1 =5*", 4);
+        expectEnd("=1 =5+?", 2);
+        expectEnd("=1 =5*?", 1);
+        expectEnd("=1 (=5)+", 4);
+        expectEnd("=1 =5+ $", 4);
+        expect(Pattern.compile("=1 =5+", ValueChecker::new).explain()
+                .equals(Pattern.compile("=1 =5+ ", ValueChecker::new).explain()), "trailing repeat differs");
+        System.out.println("TrailingQuantifierTest passed");
+    }
+
+    private static void expectEnd(String regex, int end) {
+        Matcher<ValueChecker, Integer> matcher = Pattern.compile(regex, ValueChecker::new)
+                .matcher(INPUT, ValueChecker::check);
+        expect(matcher.find() && matcher.start(0) == 0 && matcher.end(0) == end,
+                regex + " does not end at " + end);
+    }
+}
@@ -0,0 +1,41 @@
+package regex.core;
+
+/**
+ * literal of the test patterns, the value checker of the README: "<3", ">2", "=5", "%2"
+ */
+class ValueChecker {
+    final char operator;
+    final int operand;
+
+    ValueChecker(String str) {
+        operator = str.charAt(0);
+        operand = Integer.valueOf(str.substring(1));
+    }
+
+    boolean check(int value) {
+        switch (operator) {
+            case '<':
+                return value < operand;
+            case '>':
+                return value > operand;
+            case '=':
+                return value == operand;
+            case '%':
+                return value % operand == 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the value accepted by an equality literal, null for the other literals
+     */
+    Integer key() {
+        return operator == '=' ? operand : null;
+    }
+
+    static void expect(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,75 @@
+package regex.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * match finds the pattern tree as a subsequence of the pre-order of the tree,
+ * taking the earliest node for every pattern node
+ */
+public class GenericTreeTest {
+    public static void main(String[] args) {
+        // a1(b1(a2) c1) b2(c2 a3)
+        GenericTreeNode<String> root = node("a1", node("b1", node("a2")), node("c1"));
+        GenericTreeNode<String> top = node("r", root, node("b2", node("c2"), node("a3")));
+        expect(Arrays.asList("a1", "b1", "c1").equals(match(top, node("a", node("b"), node("c")))),
+                "not the earliest embedding");
+        expect(Arrays.asList("a1", "a2", "a3").equals(match(top, node("a", node("a", node("a"))))),
+                "repeated pattern nodes take distinct earliest nodes");
+        expect(Arrays.asList("c1", "b2", "c2").equals(match(top, node("c", node("b"), node("c")))),
+                "embedding continues past the subtree of the first node");
+        expect(match(top, node("c", node("c"), node("c"))) == null, "matched a pattern longer than the tree");
+        expect(match(null, node("a")) == null && match(top, null) == null, "matched a missing tree");
+
+        Random random = new Random(34);
+        for (int round = 0; round < 500; ++round) {
+            GenericTreeNode<String> tree = randomTree(random, 3);
+            GenericTreeNode<String> pattern = randomTree(random, 2);
+            expect(earliest(tree, pattern).equals(String.valueOf(match(tree, pattern))),
+                    "differs from the earliest subsequence of the pre-order");
+        }
+        System.out.println("GenericTreeTest passed");
+    }
+
+    private static List<String> match(GenericTreeNode<String> tree, GenericTreeNode<String> pattern) {
+        return GenericTree.match(tree, pattern, (data, kind) -> data.charAt(0) == kind.charAt(0));
+    }
+
+    /**
+     * earliest embedding taken from the recursive pre-order of the tree
+     */
+    private static String earliest(GenericTreeNode<String> tree, GenericTreeNode<String> pattern) {
+        List<GenericTreeNode<String>> source = GenericTree.build(tree, GenericTree.GenericTreeTraversalOrderEnum.PRE_ORDER);
+        List<GenericTreeNode<String>> kinds = GenericTree.build(pattern, GenericTree.GenericTreeTraversalOrderEnum.PRE_ORDER);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < source.size() && result.size() < kinds.size(); ++i) {
+            if (source.get(i).getData().charAt(0) == kinds.get(result.size()).getData().charAt(0))
+                result.add(source.get(i).getData());
+        }
+        return result.size() == kinds.size() ? result.toString() : "null";
+    }
+
+    private static int counter;
+
+    private static GenericTreeNode<String> randomTree(Random random, int depth) {
+        GenericTreeNode<String> result = node((char) ('a' + random.nextInt(3)) + String.valueOf(counter++));
+        for (int i = depth > 0 ? random.nextInt(3) : 0; i > 0; --i)
+            result.addChild(randomTree(random, depth - 1));
+        return result;
+    }
+
+    @SafeVarargs
+    private static GenericTreeNode<String> node(String data, GenericTreeNode<String>... children) {
+        GenericTreeNode<String> result = new GenericTreeNode<>(data);
+        for (GenericTreeNode<String> child : children)
+            result.addChild(child);
+        return result;
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}